@@ -0,0 +1,28 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The entry point of target/benchmarks.jar: JMH's own, taking the same
+ *  options, except that unless -rf or -rff is given the results are also
+ *  written as JSON to target/jmh-result.json, for comparing runs and
+ *  spotting regressions. For instance
+ *      java -jar target/benchmarks.jar ReadBenchmark -p commits=10000
+ *  @author Marco
+ */
+public class Benchmarks {
+
+    /** Where results go by default. */
+    static final String RESULT_FILE = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf") && !options.contains("-rff")) {
+            new File(RESULT_FILE).getParentFile().mkdirs();
+            options.addAll(List.of("-rf", "json", "-rff", RESULT_FILE));
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
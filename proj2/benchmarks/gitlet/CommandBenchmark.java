@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times the commands that change the repository on a SyntheticRepo,
+ *  each followed by the write-back a command ends with. Before every
+ *  invocation, untimed, the repository is made ready for the command:
+ *      add       a tracked file has just been changed
+ *      commit    a changed file has just been staged
+ *      checkout  nothing; it switches between master and b0 in turn
+ *      merge     master and a new branch have each just committed a
+ *                change to a different file since they parted
+ *  so the history grows as the benchmark runs.
+ *      java -jar target/benchmarks.jar CommandBenchmark
+ *  @author Marco
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommandBenchmark {
+
+    /** The command timed. */
+    @Param({"add", "commit", "checkout", "merge"})
+    String command;
+    /** Number of commits in the history at first. */
+    @Param({"1000", "10000"})
+    int commits;
+    /** Number of files. */
+    @Param({"1000"})
+    int files;
+    /** Number of branches besides master. */
+    @Param({"100"})
+    int branches;
+
+    /** The repository. */
+    private File repo;
+    /** Standard output, while what the commands print is thrown away. */
+    private PrintStream stdout;
+    /** Chooses the files changed. */
+    private final Random random = new Random(61);
+    /** The number of invocations made ready so far. */
+    private int round;
+    /** The file to add in this invocation. */
+    private File changed;
+    /** The branch to check out or merge in this invocation. */
+    private String branch = "master";
+
+    @Setup(Level.Trial)
+    public void makeRepo() throws IOException {
+        repo = SyntheticRepo.create(commits, files, branches);
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        round += 1;
+        switch (command) {
+            case "add":
+                changed = change(SyntheticRepo.tracked.get(random.nextInt(files)));
+                break;
+            case "commit":
+                Repository.add(change(SyntheticRepo.tracked.get(random.nextInt(files))));
+                break;
+            case "checkout":
+                branch = branch.equals("master") ? "b0" : "master";
+                break;
+            case "merge":
+                branch = "m" + round;
+                Repository.branch(branch);
+                Repository.add(change(SyntheticRepo.tracked.get(2 * round % files)));
+                Repository.commit("master before merge " + round, null);
+                Repository.checkout(branch);
+                Repository.add(change(SyntheticRepo.tracked.get((2 * round + 1) % files)));
+                Repository.commit("branch before merge " + round, null);
+                Repository.checkout("master");
+                break;
+            default:
+                throw new IllegalArgumentException("no such command: " + command);
+        }
+        Repository.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() {
+        System.setOut(stdout);
+        ParallelAddBenchmark.deleteTree(repo);
+    }
+
+    @Benchmark
+    public void run() {
+        switch (command) {
+            case "add":
+                Repository.add(changed);
+                break;
+            case "commit":
+                Repository.commit("benchmark commit " + round, null);
+                break;
+            case "checkout":
+                Repository.checkout(branch);
+                break;
+            case "merge":
+                Repository.merge(branch);
+                break;
+            default:
+                throw new IllegalArgumentException("no such command: " + command);
+        }
+        Repository.flush();
+    }
+
+    /** Appends a line to F and returns it. */
+    private File change(File f) {
+        SyntheticRepo.append(f, "benchmark change " + round);
+        return f;
+    }
+}
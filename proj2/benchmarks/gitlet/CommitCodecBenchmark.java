@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Compares the binary commit form (Commit.encode and Commit.decode)
+ *  with Java serialization, for commits tracking 1, 100 and 10000 files
+ *  spread over a few directories. A binary commit keeps its files in
+ *  tree objects, so building and reading those trees (in memory) is
+ *  counted along with it. The encoded sizes are printed when each trial
+ *  starts.
+ *      java -jar target/benchmarks.jar CommitCodecBenchmark
+ *  @author Marco
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommitCodecBenchmark {
+
+    /** Number of files the commit tracks. */
+    @Param({"1", "100", "10000"})
+    int files;
+
+    /** The commit encoded and decoded. */
+    private Commit commit;
+    /** COMMIT in the binary form. */
+    private byte[] binary;
+    /** The trees of COMMIT, in their stored forms. */
+    private ObjectStore trees;
+    /** COMMIT Java-serialized. */
+    private byte[] serialized;
+
+    @Setup
+    public void makeCommit() {
+        Map<String, String> tracked = new TreeMap<>();
+        for (int i = 0; i < files; i += 1) {
+            tracked.put("src/module" + (i % 16) + "/File" + i + ".java",
+                    sha1("contents " + i));
+        }
+        commit = new Commit("A commit message of typical length", tracked,
+                new Commit(), null);
+        binary = commit.encode();
+        Map<String, byte[]> treeObjects = new HashMap<>();
+        Tree.build(tracked, treeObjects);
+        trees = new MemoryStore(treeObjects);
+        serialized = serialize(commit);
+        int treeBytes = 0;
+        for (byte[] tree : treeObjects.values()) {
+            treeBytes += tree.length;
+        }
+        System.out.printf("%n%d files: binary %d + %d bytes of trees, serialized %d bytes%n",
+                files, binary.length, treeBytes, serialized.length);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        Tree.build(commit.files(), new HashMap<>());
+        return commit.encode();
+    }
+
+    @Benchmark
+    public Map<String, String> decodeBinary() {
+        return Tree.read(Commit.decode(binary).tree, trees);
+    }
+
+    @Benchmark
+    public byte[] encodeSerialized() {
+        return serialize(commit);
+    }
+
+    @Benchmark
+    public Commit decodeSerialized() {
+        return deserialize(serialized, Commit.class);
+    }
+
+    /** An ObjectStore held in a map, for objects already in memory. */
+    private static class MemoryStore implements ObjectStore {
+        /** The objects, by id. */
+        private final Map<String, byte[]> objects;
+
+        MemoryStore(Map<String, byte[]> objects) {
+            this.objects = objects;
+        }
+
+        @Override
+        public boolean contains(String id) {
+            return objects.containsKey(id);
+        }
+
+        @Override
+        public byte[] read(String id) {
+            return objects.get(id);
+        }
+
+        @Override
+        public void write(String id, byte[] contents) {
+            objects.put(id, contents);
+        }
+
+        @Override
+        public String putFile(File file) {
+            return put(readContents(file));
+        }
+
+        @Override
+        public void copyTo(String id, File file) {
+            writeContents(file, read(id));
+        }
+
+        @Override
+        public List<String> ids() {
+            return new ArrayList<>(new TreeMap<>(objects).keySet());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures LineMerge on large files that each side has edited in a few
+ *  places that do not overlap, the common case in which the cost should
+ *  follow the number of edits rather than the square of the length. One
+ *  LineMerge is used throughout, as in a merge of many files.
+ *      java -jar target/benchmarks.jar MergeBenchmark
+ *  @author Marco
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+    /** Number of lines in each version of the file. */
+    @Param({"1000", "100000"})
+    int lines;
+
+    /** Number of lines each side changes. */
+    @Param({"10"})
+    int edits;
+
+    /** The common ancestor and the two edited versions. */
+    private byte[] base;
+    private byte[] ours;
+    private byte[] theirs;
+    /** The merger, reused across invocations. */
+    private final LineMerge merger = new LineMerge();
+
+    @Setup
+    public void makeFiles() {
+        StringBuilder b = new StringBuilder();
+        StringBuilder o = new StringBuilder();
+        StringBuilder t = new StringBuilder();
+        int spacing = lines / (2 * edits);
+        for (int i = 0; i < lines; i += 1) {
+            String line = "    line " + i + " of a large source file;\n";
+            b.append(line);
+            if (i % (2 * spacing) == 0) {
+                o.append("    our edit to line ").append(i).append(";\n");
+            } else {
+                o.append(line);
+            }
+            if (i % (2 * spacing) == spacing) {
+                t.append("    their edit to line ").append(i).append(";\n");
+            } else {
+                t.append(line);
+            }
+        }
+        base = b.toString().getBytes(StandardCharsets.UTF_8);
+        ours = o.toString().getBytes(StandardCharsets.UTF_8);
+        theirs = t.toString().getBytes(StandardCharsets.UTF_8);
+        merger.merge(base, ours, theirs);
+        if (merger.conflicts() != 0) {
+            throw new IllegalStateException("edits overlap");
+        }
+    }
+
+    @Benchmark
+    public byte[] mergeFewEdits() {
+        return merger.merge(base, ours, theirs);
+    }
+}
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Times hashing and storing a batch of files, as gitlet add does, with
+ *  1, 4 and 16 worker threads. Each invocation starts from an empty
+ *  object store, so every blob is really written.
+ *      java -jar target/benchmarks.jar ParallelAddBenchmark
+ *  @author Marco
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelAddBenchmark {
+
+    /** Number of worker threads. */
+    @Param({"1", "4", "16"})
+    int threads;
+    /** Number of files added. */
+    @Param({"2000"})
+    int files;
+    /** Size of each file in bytes. */
+    @Param({"16384"})
+    int fileSize;
+
+    /** Scratch directory holding the files and the store. */
+    private File work;
+    /** The files to add. */
+    private List<File> sources;
+    /** The store written by the current invocation. */
+    private FileObjectStore store;
+
+    @Setup(Level.Trial)
+    public void makeFiles() throws IOException {
+        work = Files.createTempDirectory("gitlet-bench").toFile();
+        File dir = join(work, "files");
+        dir.mkdir();
+        Random random = new Random(61);
+        sources = new ArrayList<>();
+        for (int i = 0; i < files; i += 1) {
+            byte[] contents = new byte[fileSize];
+            random.nextBytes(contents);
+            File f = join(dir, "f" + i);
+            writeContents(f, contents);
+            sources.add(f);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyStore() {
+        File dir = join(work, "objects");
+        deleteTree(dir);
+        store = new FileObjectStore(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() {
+        deleteTree(work);
+    }
+
+    @Benchmark
+    public List<String> hashAndStore() {
+        return Parallel.map(sources, threads, f -> store.put(readContents(f)));
+    }
+
+    /** Deletes F and, if it is a directory, everything under it. */
+    static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times the commands that only read the repository, and the split-point
+ *  search merge starts with, on a SyntheticRepo. What they print is
+ *  thrown away. The session cache stays warm across invocations, as in a
+ *  server, so these are the costs of a command after the first.
+ *      java -jar target/benchmarks.jar ReadBenchmark
+ *  @author Marco
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+
+    /** Number of commits in the history. */
+    @Param({"1000", "10000"})
+    int commits;
+    /** Number of files. */
+    @Param({"1000"})
+    int files;
+    /** Number of branches besides master. */
+    @Param({"100"})
+    int branches;
+
+    /** The repository. */
+    private File repo;
+    /** Standard output, while what the commands print is thrown away. */
+    private PrintStream stdout;
+    /** The head commit, and the commit of the oldest branch. */
+    private Commit head;
+    private Commit oldest;
+
+    @Setup(Level.Trial)
+    public void makeRepo() throws IOException {
+        repo = SyntheticRepo.create(commits, files, branches);
+        head = Repository.getCurHead();
+        oldest = Commit.load(Repository.REFS.get("b0"));
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() {
+        System.setOut(stdout);
+        ParallelAddBenchmark.deleteTree(repo);
+    }
+
+    @Benchmark
+    public void status() {
+        Repository.status();
+    }
+
+    @Benchmark
+    public void log() {
+        Repository.log(0, -1);
+    }
+
+    @Benchmark
+    public void find() {
+        Repository.find("commit " + commits / 2);
+    }
+
+    @Benchmark
+    public Commit splitPoint() {
+        return Repository.findSplit(head, oldest);
+    }
+}
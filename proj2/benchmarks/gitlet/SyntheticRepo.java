@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Builds repositories for the benchmarks to run against: a history of
+ *  N commits over F files, with B branches spread along it. The first
+ *  commit adds every file, spread over DIRS directories; each later one
+ *  appends a line to EDITS files chosen at random. Branch b0 is the
+ *  oldest, and master is at the newest commit. The same arguments always
+ *  give the same files and history.
+ *
+ *  Gitlet finds its repository in the working directory when it is first
+ *  loaded, so create points user.dir at the new repository and must run
+ *  before anything else touches Repository: a benchmark calls it from its
+ *  trial setup and runs in its own fork. The history is built through
+ *  the commands themselves, with branch writes deferred as in a batch.
+ *  @author Marco
+ */
+class SyntheticRepo {
+
+    /** Number of directories the files are spread over. */
+    static final int DIRS = 32;
+    /** Number of lines in each file at first. */
+    static final int LINES = 40;
+    /** Number of files each commit after the first changes. */
+    static final int EDITS = 3;
+
+    /** The files of the repository last created, in the order they were
+     *  made. */
+    static List<File> tracked;
+
+    /** Creates a repository of COMMITS commits over FILES files with
+     *  BRANCHES branches besides master in a new temporary directory, makes
+     *  it gitlet's working directory, and returns it. */
+    static File create(int commits, int files, int branches) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-repo").toFile().getCanonicalFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.CWD.equals(dir)) {
+            throw new IllegalStateException("gitlet is already using " + Repository.CWD
+                    + "; each trial needs a fork of its own");
+        }
+        Random random = new Random(61);
+        Repository.init();
+        Repository.REFS.defer(true);
+        tracked = new ArrayList<>();
+        for (int i = 0; i < files; i += 1) {
+            File f = join(dir, "d" + (i % DIRS), "f" + i + ".txt");
+            f.getParentFile().mkdir();
+            StringBuilder contents = new StringBuilder();
+            for (int k = 0; k < LINES; k += 1) {
+                contents.append("line ").append(k).append(" of f").append(i)
+                        .append(": ").append(random.nextLong()).append('\n');
+            }
+            writeContents(f, contents.toString());
+            tracked.add(f);
+        }
+        Repository.add(tracked);
+        Repository.commit("commit 0", null);
+        int spacing = Math.max(1, commits / Math.max(1, branches));
+        int made = 0;
+        for (int c = 1; c < commits; c += 1) {
+            if (c % spacing == 0 && made < branches) {
+                Repository.branch("b" + made);
+                made += 1;
+            }
+            List<File> changed = new ArrayList<>();
+            for (int k = 0; k < EDITS; k += 1) {
+                File f = tracked.get(random.nextInt(files));
+                append(f, "edit in commit " + c);
+                changed.add(f);
+            }
+            Repository.add(changed);
+            Repository.commit("commit " + c, null);
+        }
+        for (; made < branches; made += 1) {
+            Repository.branch("b" + made);
+        }
+        Repository.flush();
+        Repository.REFS.defer(false);
+        return dir;
+    }
+
+    /** Appends LINE and a newline to F. */
+    static void append(File f, String line) {
+        try {
+            Files.write(f.toPath(), (line + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
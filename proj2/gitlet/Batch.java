@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.STREAM_BUFFER_SIZE;
+import static gitlet.Utils.error;
+
+/** Runs a script of gitlet commands in this process, against one open
+ *  repository: "gitlet batch FILE" reads them from FILE, and "gitlet
+ *  batch" or "gitlet batch -" from standard input. Each line is one
+ *  command, written as on a command line without the leading "gitlet",
+ *  with words separated by blanks and quoted with '...' or "...", in
+ *  which \ escapes " and \. Blank lines and lines starting with # are
+ *  skipped.
+ *
+ *  The staging area and the branches are kept in memory between
+ *  commands and written only at checkpoints, every CHECKPOINT_INTERVAL
+ *  commands and at the end, so a script that adds and commits a thousand
+ *  times writes the index and its branch once rather than a thousand
+ *  times. A command that fails prints its message, as it would alone, and
+ *  the script goes on. As in Main.run, what the failed command changed
+ *  in memory is discarded; a savepoint taken before each command keeps
+ *  what the earlier commands did. If the process dies, the work since
+ *  the last checkpoint is lost, but the repository is left as it was at
+ *  that checkpoint.
+ *  @author Marco
+ */
+class Batch {
+
+    /** The number of commands run between checkpoints. */
+    static final int CHECKPOINT_INTERVAL = 1000;
+
+    /** Runs the commands in the file named SOURCE, or on standard input
+     *  if SOURCE is "-". What the commands changed since the last
+     *  checkpoint is left for the caller's Repository.flush. */
+    static void run(String source) {
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE),
+                false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        REFS.defer(true);
+        try (BufferedReader in = open(source)) {
+            int sinceCheckpoint = 0;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.isBlank() || line.strip().startsWith("#")) {
+                    continue;
+                }
+                String[] args = words(line);
+                if (args == null) {
+                    out.println("Unterminated quote: " + line);
+                    continue;
+                }
+                run(args);
+                sinceCheckpoint += 1;
+                if (sinceCheckpoint == CHECKPOINT_INTERVAL) {
+                    Repository.flush();
+                    out.flush();
+                    sinceCheckpoint = 0;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            REFS.defer(false);
+            out.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /** Runs the single command ARGS of a batch. */
+    private static void run(String[] args) {
+        if (args[0].equals("batch") || args[0].equals("server")) {
+            System.out.println("Cannot run " + args[0] + " in a batch.");
+            return;
+        }
+        Repository.savepoint();
+        try {
+            Main.execute(args);
+        } catch (GitletException excp) {
+            Repository.discard();
+            System.out.println(excp.getMessage());
+        }
+        Trace.report(args);
+    }
+
+    /** Returns a reader of the file named SOURCE, or of standard input if
+     *  SOURCE is "-". */
+    private static BufferedReader open(String source) throws IOException {
+        Reader reader;
+        if (source.equals("-")) {
+            reader = new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        } else {
+            try {
+                reader = Files.newBufferedReader(CWD.toPath().resolve(source));
+            } catch (NoSuchFileException excp) {
+                throw error("File does not exist.");
+            }
+        }
+        return new BufferedReader(reader, STREAM_BUFFER_SIZE);
+    }
+
+    /** Returns the words of LINE, or null if it ends inside a quote. */
+    static String[] words(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\\' && i + 1 < line.length()
+                    && (quote == 0 || line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                i += 1;
+                word.append(line.charAt(i));
+                inWord = true;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inWord = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inWord) {
+                    result.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        if (inWord) {
+            result.add(word.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** The thin client of a gitlet Server: it hands its command to the
+ *  server of the repository in the current directory and copies back
+ *  what the server prints. With no server running, it runs the command
+ *  itself. It uses nothing of gitlet but Main, and that only when there
+ *  is no server, so it starts as quickly as a JVM can.
+ *      java gitlet.Client ARGS
+ *  @author Marco
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, where ARGS are as for Main. */
+    public static void main(String[] args) {
+        if (!forward(args)) {
+            Main.run(args);
+        }
+    }
+
+    /** Sends ARGS to the server of the repository in the current
+     *  directory and prints its reply. Returns false, having done
+     *  nothing, if no server is listening there. */
+    static boolean forward(String[] args) {
+        Path socket = Paths.get(System.getProperty("user.dir"), ".gitlet", Server.SOCKET_NAME);
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+            } catch (IOException excp) {
+                return false;
+            }
+            OutputStream out = Channels.newOutputStream(channel);
+            for (String arg : args) {
+                out.write(arg.getBytes(StandardCharsets.UTF_8));
+                out.write(0);
+            }
+            channel.shutdownOutput();
+            InputStream in = Channels.newInputStream(channel);
+            in.transferTo(System.out);
+            System.out.flush();
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package gitlet;
 
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -9,6 +9,11 @@ import static gitlet.Repository.*;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
+ *
+ *  Commits are stored in a compact binary form (see encode) rather than
+ *  with Java serialization, which is slow, spends much of each object on
+ *  class descriptors, and breaks when a field changes. The class stays
+ *  Serializable only so that CommitCodecBenchmark can compare the two.
  *  @author Marco
  */
 public class Commit implements Serializable {
@@ -16,17 +21,30 @@ public class Commit implements Serializable {
     String message;
     /** The timestamp of this Commit. */
     Date timestamp;
-    /** The files I tracked in this Commit. */
+    /** The files I tracked in this Commit, sorted by path; null until read
+     *  from the tree (see files). */
     Map<String, String> fileToBlobs;
+    /** The id of the tree of the files I tracked. */
+    String tree;
     /** The id of this Commit. */
     String id;
-    /** The (1st) parent of the Commit */
-    Commit parent;
-    /** The (2nd) parent of the Commit */
-    Commit parent2;
+    /** The id of the (1st) parent of the Commit, null for the initial commit. */
+    String parent;
+    /** The id of the (2nd) parent of the Commit, null unless merged. */
+    String parent2;
     /** Whether the commit node is a merge node */
     boolean merged;
 
+    /** The version of the binary form written by encode. */
+    static final int FORMAT_VERSION = 2;
+    /** Flag set in the binary form when there is a (1st) parent. */
+    private static final int HAS_PARENT = 1;
+    /** Flag set in the binary form when there is a 2nd parent. */
+    private static final int HAS_PARENT2 = 2;
+
+    /** The stored forms of this new commit's trees, by id, until save. */
+    private transient Map<String, byte[]> unsavedTrees;
+
     // initial commit
     public Commit() {
         this.merged = false;
@@ -35,43 +53,134 @@ public class Commit implements Serializable {
         this.parent = null;
         this.parent2 = null;
         this.message = "initial commit";
-        this.fileToBlobs = new HashMap<>();
+        this.fileToBlobs = new TreeMap<>();
+        this.unsavedTrees = new HashMap<>();
+        this.tree = Tree.build(fileToBlobs, unsavedTrees);
     }
 
     public Commit(
             String message,
-            Set<String> toAdd,
-            Set<String> toDelete,
+            Map<String, String> files,
             Commit parent1,
             Commit parent2
     ) {
         this.merged = (parent2 != null);
         this.timestamp = new Date();
+        this.parent = parent1.id;
+        this.parent2 = merged ? parent2.id : null;
+        this.fileToBlobs = new TreeMap<>(files);
+        this.unsavedTrees = new HashMap<>();
+        this.tree = buildTree(parent1);
         this.id = Utils.sha1(
                 this.timestamp.toString(),
                 message,
-                toAdd.toString(),
-                toDelete.toString()
+                this.tree,
+                this.parent,
+                merged ? this.parent2 : ""
         );
         this.message = message;
-        this.fileToBlobs = new HashMap<>();
-        this.parent = parent1;
+    }
+
+    /** A commit read back from its binary form, with the id of its
+     *  TREE. */
+    private Commit(String id, Date timestamp, String message, String parent,
+                   String parent2, String tree) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.message = message;
+        this.parent = parent;
         this.parent2 = parent2;
-        for (String s: parent1.fileToBlobs.keySet()) {
-            fileToBlobs.put(s, parent1.fileToBlobs.get(s));
+        this.merged = parent2 != null;
+        this.tree = tree;
+    }
+
+    /** Returns the id of the tree of my files, adding the trees it needs to
+     *  unsavedTrees. When BASE is saved, only the subtrees holding files
+     *  that differ from BASE's are built; the rest are BASE's own. */
+    private String buildTree(Commit base) {
+        if (base.unsavedTrees != null) {
+            return Tree.build(fileToBlobs, unsavedTrees);
         }
-        // overwrites parent1's content
-        for (String filename: toAdd) {
-            File f = join(STAGING_DIR, filename);
-            String fileContent = readContentsAsString(f);
-            String sha1Hash = sha1(filename, fileContent);
-            File blob = join(BLOBS_DIR, sha1Hash);
-            writeContents(blob, fileContent);
-            this.fileToBlobs.put(filename, sha1Hash);
+        SortedMap<String, String> changes = new TreeMap<>();
+        for (Map.Entry<String, String> e : fileToBlobs.entrySet()) {
+            if (!e.getValue().equals(base.files().get(e.getKey()))) {
+                changes.put(e.getKey(), e.getValue());
+            }
         }
-        for (String filename: toDelete) {
-            this.fileToBlobs.remove(filename);
+        for (String path : base.files().keySet()) {
+            if (!fileToBlobs.containsKey(path)) {
+                changes.put(path, null);
+            }
         }
+        return Tree.update(base.tree, changes, TREES, unsavedTrees);
+    }
+
+    /** Returns the commit with the given full ID, read from COMMITS
+     *  unless this session has read it already. */
+    static Commit load(String id) {
+        return SESSION.commit(id);
     }
 
+    /** Writes this commit to COMMITS under its id, after writing to TREES
+     *  whichever of its trees are not there already. Only the parent ids
+     *  are stored, so the file size does not grow with history. */
+    void save() {
+        if (unsavedTrees != null) {
+            for (Map.Entry<String, byte[]> e : unsavedTrees.entrySet()) {
+                TREES.write(e.getKey(), e.getValue());
+            }
+            unsavedTrees = null;
+        }
+        COMMITS.write(id, encode());
+    }
+
+    /** Returns the files I track, as a map from path to blob id, reading
+     *  them from my tree on first use. */
+    Map<String, String> files() {
+        if (fileToBlobs == null) {
+            fileToBlobs = Tree.read(tree, TREES);
+            SESSION.filesRead(id);
+        }
+        return fileToBlobs;
+    }
+
+    /** Returns the binary form of this commit: FORMAT_VERSION, the raw
+     *  20-byte id, a byte of HAS_PARENT and HAS_PARENT2 flags followed by
+     *  the raw ids of the parents present, the timestamp in milliseconds,
+     *  the message and the raw id of the tree. Numbers are varints (see
+     *  Delta.writeVarint) and strings are a varint length followed by
+     *  UTF-8 (see Utils.writeString). */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT_VERSION);
+        out.writeBytes(hexToBytes(id));
+        out.write((parent != null ? HAS_PARENT : 0)
+                | (parent2 != null ? HAS_PARENT2 : 0));
+        if (parent != null) {
+            out.writeBytes(hexToBytes(parent));
+        }
+        if (parent2 != null) {
+            out.writeBytes(hexToBytes(parent2));
+        }
+        Delta.writeVarint(out, timestamp.getTime());
+        writeString(out, message);
+        out.writeBytes(hexToBytes(tree));
+        return out.toByteArray();
+    }
+
+    /** Returns the commit whose stored form is BYTES. */
+    static Commit decode(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] != FORMAT_VERSION) {
+            throw error("Unrecognized commit format.");
+        }
+        int[] pos = {1};
+        String id = readId(bytes, pos);
+        int flags = bytes[pos[0]];
+        pos[0] += 1;
+        String parent = (flags & HAS_PARENT) != 0 ? readId(bytes, pos) : null;
+        String parent2 = (flags & HAS_PARENT2) != 0 ? readId(bytes, pos) : null;
+        Date timestamp = new Date(Delta.readLongVarint(bytes, pos));
+        String message = readString(bytes, pos);
+        return new Commit(id, timestamp, message, parent, parent2, readId(bytes, pos));
+    }
 }
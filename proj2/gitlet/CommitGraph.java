@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** The shape of the commit history, kept apart from the commits themselves
+ *  so that ancestry questions can be answered without loading commits.
+ *  The file is MAGIC and VERSION followed by one fixed-size row per
+ *  commit, in the order the commits were made, so that a commit's parents
+ *  always come before it. A row is the commit's 20-byte id, the row
+ *  numbers of its two parents (-1 if absent) and its generation number:
+ *  1 for the initial commit and otherwise one more than the larger
+ *  generation of its parents. Every ancestor of a commit has a smaller
+ *  generation than the commit, which is what lets mergeBase stop early.
+ *
+ *  New commits are appended, so recording a commit costs O(1). Row
+ *  numbers are found from ids through the CommitIndex. A row is written
+ *  just past the last whole one, over whatever part of a row a crash
+ *  left there, and is flushed to the disk (see Durable) before any branch
+ *  that names its commit, so a branch never names a commit the graph
+ *  lacks. A crash between saving a commit and appending its row
+ *  leaves the graph a row short of the commit store, which check finds
+ *  by comparing their counts, as CommitJournal does with the graph.
+ *  @author Marco
+ */
+class CommitGraph {
+
+    /** First word of the graph file. */
+    static final int MAGIC = 0x474c4347;
+    /** Format version of the graph file. */
+    static final int VERSION = 1;
+    /** Length of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Size of the header. */
+    private static final int HEADER = 8;
+    /** Size of one row. */
+    private static final int ROW = ID_BYTES + 3 * 4;
+
+    /** Flag: reachable from the first commit given to mergeBase. */
+    private static final int FROM_FIRST = 1;
+    /** Flag: reachable from the second commit given to mergeBase. */
+    private static final int FROM_SECOND = 2;
+
+    /** The graph file. */
+    private final File file;
+    /** Where the graph is rebuilt from if the file is missing. */
+    private final ObjectStore commits;
+    /** The mapped graph file, or null until first needed. */
+    private MappedByteBuffer rows;
+
+    /** A graph kept in FILE of the commits in COMMITS. */
+    CommitGraph(File file, ObjectStore commits) {
+        this.file = file;
+        this.commits = commits;
+    }
+
+    /** Returns the mapped graph, rebuilding the file from the commit
+     *  store first if it is missing. */
+    private MappedByteBuffer rows() {
+        if (rows == null) {
+            if (!file.isFile()) {
+                rebuild();
+            }
+            try (FileChannel channel =
+                         FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                rows = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (rows.getInt(0) != MAGIC || rows.getInt(4) != VERSION) {
+                throw error("Unrecognized commit graph %s.", file.getName());
+            }
+        }
+        return rows;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return (rows().capacity() - HEADER) / ROW;
+    }
+
+    /** Returns the id of the commit in row K. */
+    String idAt(int k) {
+        byte[] raw = new byte[ID_BYTES];
+        rows().duplicate().position(HEADER + k * ROW).get(raw);
+        return bytesToHex(raw, 0, ID_BYTES);
+    }
+
+    /** Returns the row of the first parent of row K, or -1. */
+    int parent1(int k) {
+        return rows().getInt(HEADER + k * ROW + ID_BYTES);
+    }
+
+    /** Returns the row of the second parent of row K, or -1. */
+    int parent2(int k) {
+        return rows().getInt(HEADER + k * ROW + ID_BYTES + 4);
+    }
+
+    /** Returns the generation number of row K. */
+    int generation(int k) {
+        return rows().getInt(HEADER + k * ROW + ID_BYTES + 8);
+    }
+
+    /** Rebuilds the graph if it does not hold as many commits as the
+     *  commit store, and returns true iff it did. Listing the store costs
+     *  about as much as reading the whole history, so only commands that
+     *  do that anyway call this. */
+    boolean check() {
+        if (size() != commits.ids().size()) {
+            rebuild();
+            return true;
+        }
+        return false;
+    }
+
+    /** Appends a row for the commit ID whose parents are in rows PARENT1
+     *  and PARENT2 (either may be -1), and returns its row number. */
+    int append(String id, int parent1, int parent2) {
+        int gen = 1 + Math.max(parent1 < 0 ? 0 : generation(parent1),
+                parent2 < 0 ? 0 : generation(parent2));
+        int k = size();
+        ByteBuffer row = ByteBuffer.allocate(ROW);
+        row.put(hexToBytes(id)).putInt(parent1).putInt(parent2).putInt(gen).flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            for (long pos = HEADER + (long) k * ROW; row.hasRemaining();) {
+                pos += channel.write(row, pos);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durable.later(file.toPath());
+        rows = null;
+        return k;
+    }
+
+    /** Returns the row of a latest common ancestor of rows A and B: one
+     *  that is not an ancestor of any other common ancestor.
+     *
+     *  This is git's paint-down-to-common walk. Commits are taken from a
+     *  queue in decreasing order of generation, each marked with which of
+     *  A and B reaches it, and those marks are passed on to the parents.
+     *  The first commit reached from both is the answer: any common
+     *  ancestor with a larger generation would have been taken first.
+     *  A commit's children all have larger generations, so every mark it
+     *  will get has been passed on before it is taken; it goes on the
+     *  queue once, when first marked.
+     *  Only commits whose generation is at least that of the answer are
+     *  ever visited, however long the history below it. */
+    int mergeBase(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        Map<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (x, y) -> Integer.compare(generation(y), generation(x)));
+        marks.put(a, FROM_FIRST);
+        marks.put(b, FROM_SECOND);
+        queue.add(a);
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            int k = queue.poll();
+            int mark = marks.get(k);
+            if (mark == (FROM_FIRST | FROM_SECOND)) {
+                return k;
+            }
+            for (int p : new int[] {parent1(k), parent2(k)}) {
+                if (p < 0) {
+                    continue;
+                }
+                int old = marks.getOrDefault(p, 0);
+                marks.put(p, old | mark);
+                if (old == 0) {
+                    queue.add(p);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Writes the graph file afresh from the commit store, placing every
+     *  commit after its parents. */
+    void rebuild() {
+        Map<String, Commit> all = new HashMap<>();
+        for (String id : commits.ids()) {
+            all.put(id, Commit.load(id));
+        }
+        Map<String, Integer> rowOf = new HashMap<>();
+        List<Commit> order = new ArrayList<>();
+        ArrayDeque<Commit> stack = new ArrayDeque<>();
+        for (Commit start : all.values()) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                Commit c = stack.peek();
+                if (rowOf.containsKey(c.id)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String p : new String[] {c.parent, c.parent2}) {
+                    if (p != null && !rowOf.containsKey(p)) {
+                        stack.push(all.get(p));
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    rowOf.put(c.id, order.size());
+                    order.add(c);
+                }
+            }
+        }
+        File tmp = join(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                int[] gens = new int[order.size()];
+                for (int k = 0; k < order.size(); k += 1) {
+                    Commit c = order.get(k);
+                    int p1 = c.parent == null ? -1 : rowOf.get(c.parent);
+                    int p2 = c.parent2 == null ? -1 : rowOf.get(c.parent2);
+                    gens[k] = 1 + Math.max(p1 < 0 ? 0 : gens[p1], p2 < 0 ? 0 : gens[p2]);
+                    out.write(hexToBytes(c.id));
+                    out.writeInt(p1);
+                    out.writeInt(p2);
+                    out.writeInt(gens[k]);
+                }
+            }
+            Durable.rename(tmp.toPath(), file.toPath());
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        rows = null;
+    }
+}
@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A sorted index of every commit id, used to expand abbreviated ids
+ *  and to find a commit's row in the CommitGraph. The file has the same
+ *  layout as the front of a pack's .idx file: MAGIC, VERSION, a 256-entry
+ *  fan-out table whose entry b is the number of ids whose first byte is
+ *  at most b, and the sorted 20-byte ids; then, in the same order, each
+ *  id's row in the graph. It is memory-mapped, so a lookup reads only the
+ *  O(log n) entries its binary search touches.
+ *
+ *  The file lists the commits in the first rows of the graph. The ones
+ *  made since, in the rows after those, form an unsorted tail that is
+ *  read from the graph into a map on first use, so recording a commit
+ *  writes nothing here. Once the tail grows past TAIL_LIMIT, and at pack
+ *  and gc, the file is rebuilt to take it in. The file is rebuilt too if
+ *  it lists more commits than the graph holds, or if a lookup finds that
+ *  the graph has been rebuilt in another order since.
+ *  @author Marco
+ */
+class CommitIndex {
+
+    /** First word of the index file. */
+    static final int MAGIC = 0x474c4349;
+    /** Format version of the index file. */
+    static final int VERSION = 2;
+    /** Length of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Offset of the fan-out table. */
+    private static final int FANOUT_START = 8;
+    /** Offset of the sorted ids. */
+    private static final int IDS_START = FANOUT_START + 256 * 4;
+    /** The most commits left in the tail before the file takes them in. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** The index file. */
+    private final File file;
+    /** Where the ids come from if the index file has to be rebuilt. */
+    private final CommitGraph graph;
+    /** The mapped index file, or null until first needed. */
+    private MappedByteBuffer index;
+    /** The graph rows of the commits in the tail, by id, or null until
+     *  first needed. */
+    private Map<String, Integer> tail;
+
+    /** An index kept in FILE of the commits in GRAPH. */
+    CommitIndex(File file, CommitGraph graph) {
+        this.file = file;
+        this.graph = graph;
+    }
+
+    /** Returns the mapped index, rebuilding the file from the graph first
+     *  if it is missing or lists more commits than the graph. */
+    private MappedByteBuffer index() {
+        if (index == null) {
+            if (!file.isFile()) {
+                rebuild();
+            }
+            try (FileChannel channel =
+                         FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+                throw error("Unrecognized commit index %s.", file.getName());
+            }
+            if (size() > graph.size()) {
+                rebuild();
+                return index();
+            }
+        }
+        return index;
+    }
+
+    /** Returns the number of ids in the index. */
+    int size() {
+        return index().getInt(FANOUT_START + 255 * 4);
+    }
+
+    /** Returns the id at position K. */
+    String idAt(int k) {
+        byte[] raw = new byte[ID_BYTES];
+        index().duplicate().position(IDS_START + k * ID_BYTES).get(raw);
+        return bytesToHex(raw, 0, ID_BYTES);
+    }
+
+    /** Returns the row in the graph of the commit at position K. */
+    private int rowAt(int k) {
+        return index().getInt(IDS_START + size() * ID_BYTES + k * 4);
+    }
+
+    /** Returns the graph rows of the commits in the tail, by id. */
+    private Map<String, Integer> tail() {
+        if (tail == null) {
+            tail = new HashMap<>();
+            for (int k = size(); k < graph.size(); k += 1) {
+                tail.put(graph.idAt(k), k);
+            }
+        }
+        return tail;
+    }
+
+    /** Returns the graph row of the commit ID, or -1 if there is none. */
+    int row(String id) {
+        int k = position(hexToBytes(id));
+        if (k < size() && idAt(k).equals(id)) {
+            int row = rowAt(k);
+            if (row >= graph.size() || !graph.idAt(row).equals(id)) {
+                rebuild();
+                return row(id);
+            }
+            return row;
+        }
+        return tail().getOrDefault(id, -1);
+    }
+
+    /** Returns up to LIMIT ids that start with PREFIX, in sorted order. A
+     *  result of more than one id means PREFIX is ambiguous. */
+    List<String> matches(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        String low = prefix.toLowerCase();
+        if (low.isEmpty() || low.length() > UID_LENGTH
+                || !low.matches("[0-9a-f]*")) {
+            return result;
+        }
+        for (int k = position(hexToBytes(pad(low, '0'))); k < size() && result.size() < limit; k += 1) {
+            String id = idAt(k);
+            if (!id.startsWith(low)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (String id : tail().keySet()) {
+            if (id.startsWith(low)) {
+                result.add(id);
+            }
+        }
+        Collections.sort(result);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** Returns the position of the first id not less than KEY. */
+    private int position(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index().getInt(FANOUT_START + (first - 1) * 4);
+        int hi = index().getInt(FANOUT_START + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns PREFIX extended to a full id with copies of FILL. */
+    private static String pad(String prefix, char fill) {
+        StringBuilder result = new StringBuilder(prefix);
+        while (result.length() < UID_LENGTH) {
+            result.append(fill);
+        }
+        return result.toString();
+    }
+
+    /** Compares the id at position K with KEY, as unsigned bytes. */
+    private int compareId(int k, byte[] key) {
+        int base = IDS_START + k * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = (index().get(base + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Adds ID, which is in row ROW of the graph, to the index: to the
+     *  tail, unless that makes the tail too long. */
+    void add(String id, int row) {
+        tail().put(id, row);
+        if (tail.size() > TAIL_LIMIT) {
+            rebuild();
+        }
+    }
+
+    /** Replaces the index file with one listing every commit in the
+     *  graph. */
+    void rebuild() {
+        TreeMap<String, Integer> rows = new TreeMap<>();
+        for (int k = 0; k < graph.size(); k += 1) {
+            rows.put(graph.idAt(k), k);
+        }
+        rewrite(rows);
+    }
+
+    /** Replaces the index file with one holding exactly the ids in ROWS,
+     *  each with its graph row, leaving no tail. The new file is written
+     *  beside the old one and renamed over it (see Durable). */
+    private void rewrite(TreeMap<String, Integer> rows) {
+        int[] fanout = new int[256];
+        for (String id : rows.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 1; b < 256; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+        File tmp = join(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int count : fanout) {
+                    out.writeInt(count);
+                }
+                for (String id : rows.keySet()) {
+                    out.write(hexToBytes(id));
+                }
+                for (int row : rows.values()) {
+                    out.writeInt(row);
+                }
+            }
+            Durable.rename(tmp.toPath(), file.toPath());
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        index = null;
+        tail = null;
+    }
+}
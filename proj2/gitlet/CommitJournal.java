@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/** An append-only copy of every commit, in the order they were made, so
+ *  that global-log can read them all in one sequential pass instead of
+ *  opening an object file for each. The file is MAGIC, VERSION, the
+ *  number of commits it holds and the offset just past the last of them,
+ *  followed by each commit as its length and its stored bytes (see
+ *  Commit.encode). The count and offset are updated only after a commit
+ *  is fully written, and the next commit is written at that offset, so
+ *  one cut short by a crash is overwritten rather than read. The journal
+ *  is rebuilt from the commit graph whenever the count disagrees with the
+ *  graph's.
+ *  @author Marco
+ */
+class CommitJournal {
+
+    /** First word of the journal. */
+    static final int MAGIC = 0x474c4a4e;
+    /** Format version of the journal. */
+    static final int VERSION = 2;
+    /** Size of the header. */
+    private static final int HEADER = 20;
+
+    /** The journal file. */
+    private final File file;
+    /** The commits to journal if the file has to be rebuilt. */
+    private final CommitGraph graph;
+    /** Where the commits in GRAPH are stored. */
+    private final ObjectStore commits;
+
+    /** A journal kept in FILE of the commits in GRAPH, which are stored in
+     *  COMMITS. */
+    CommitJournal(File file, CommitGraph graph, ObjectStore commits) {
+        this.file = file;
+        this.graph = graph;
+        this.commits = commits;
+    }
+
+    /** Adds C, which is the newest commit in the graph, to the journal. */
+    void append(Commit c) {
+        if (count() + 1 != graph.size()) {
+            rebuild();
+            return;
+        }
+        byte[] bytes = c.encode();
+        ByteBuffer record = ByteBuffer.allocate(4 + bytes.length);
+        record.putInt(bytes.length).put(bytes).flip();
+        long end = map().getLong(12);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            for (long pos = end; record.hasRemaining();) {
+                pos += channel.write(record, pos);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        setCount(count() + 1, end + record.limit());
+    }
+
+    /** Records in the header that the journal holds N commits, ending at
+     *  offset END. */
+    private void setCount(int n, long end) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(12).putInt(0, n).putLong(4, end), 8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Calls ACTION on every commit, oldest first. */
+    void forEach(Consumer<Commit> action) {
+        if (count() != graph.size()) {
+            rebuild();
+        }
+        MappedByteBuffer journal = map();
+        int n = journal.getInt(8);
+        int off = HEADER;
+        for (int k = 0; k < n; k += 1) {
+            byte[] bytes = new byte[journal.getInt(off)];
+            journal.duplicate().position(off + 4).get(bytes);
+            action.accept(Commit.decode(bytes));
+            off += 4 + bytes.length;
+        }
+    }
+
+    /** Returns the number of commits in the journal, or -1 if there is no
+     *  usable journal. */
+    private int count() {
+        if (file.length() < HEADER) {
+            return -1;
+        }
+        MappedByteBuffer journal = map();
+        if (journal.getInt(0) != MAGIC || journal.getInt(4) != VERSION) {
+            return -1;
+        }
+        return journal.getInt(8);
+    }
+
+    /** Replaces the journal with one of every commit in the graph. */
+    void rebuild() {
+        long end;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(-1);
+            out.writeLong(0);
+            end = HEADER;
+            for (int k = 0; k < graph.size(); k += 1) {
+                byte[] bytes = commits.read(graph.idAt(k));
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                end += 4 + bytes.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        setCount(graph.size(), end);
+    }
+
+    /** Returns the journal mapped read-only. */
+    private MappedByteBuffer map() {
+        try (FileChannel channel =
+                     FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Binary deltas between two versions of an object, used by pack files to
+ *  store a blob as the edits that turn a similar blob into it.
+ *
+ *  A delta is the varint length of the base, the varint length of the
+ *  result, and then a sequence of operations:
+ *      INSERT n b1 ... bn   appends the n literal bytes b1 ... bn;
+ *      COPY off n           appends the n bytes of the base at off.
+ *  Matches are found as in git's diff-delta: the base is cut into
+ *  BLOCK-byte blocks which are hashed into a table, and a rolling hash
+ *  over the target looks up candidate blocks, which are then extended in
+ *  both directions.
+ *  @author Marco
+ */
+class Delta {
+
+    /** Operation code for a run of literal bytes. */
+    private static final int INSERT = 0;
+    /** Operation code for a run copied from the base. */
+    private static final int COPY = 1;
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME ** (BLOCK - 1), for removing a byte from the rolling hash. */
+    private static final int TOP_POWER;
+
+    static {
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+        TOP_POWER = power;
+    }
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            blocks.putIfAbsent(hash(base, off), off);
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer cand = blocks.get(h);
+            if (cand != null && matches(base, cand, target, i, BLOCK)) {
+                int baseStart = cand;
+                int targetStart = i;
+                while (baseStart > 0 && targetStart > pending
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart -= 1;
+                    targetStart -= 1;
+                }
+                int len = i - targetStart + BLOCK;
+                while (baseStart + len < base.length
+                        && targetStart + len < target.length
+                        && base[baseStart + len] == target[targetStart + len]) {
+                    len += 1;
+                }
+                writeInsert(out, target, pending, targetStart);
+                out.write(COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, len);
+                i = targetStart + len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - (target[i] & 0xff) * TOP_POWER) * PRIME
+                        + (target[i + BLOCK] & 0xff);
+            }
+            i += 1;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA, made by create, to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta does not fit its base");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int size = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int off = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, off, result, size, len);
+                size += len;
+            } else {
+                int len = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, size, len);
+                pos[0] += len;
+                size += len;
+            }
+        }
+        if (size != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA starting at OFF. */
+    private static int hash(byte[] data, int off) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + (data[off + k] & 0xff);
+        }
+        return h;
+    }
+
+    /** Returns true iff the LEN bytes of A at AOFF equal those of B at BOFF. */
+    private static boolean matches(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[aOff + k] != b[bOff + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes an INSERT of DATA[START .. END) to OUT, if it is not empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data,
+                                    int start, int end) {
+        if (start < end) {
+            out.write(INSERT);
+            writeVarint(out, end - start);
+            out.write(data, start, end - start);
+        }
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits per byte, low
+     *  bits first, with the high bit set on all but the last byte. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a varint written by writeVarint from DATA at POS[0],
+     *  advancing POS[0] past it. */
+    static int readVarint(byte[] data, int[] pos) {
+        return (int) readLongVarint(data, pos);
+    }
+
+    /** Reads a varint that may not fit in an int, as readVarint does. */
+    static long readLongVarint(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]];
+            pos[0] += 1;
+            result |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+}
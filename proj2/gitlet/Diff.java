@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/** Myers' O((N+M)D) difference algorithm, in its linear-space form, over
+ *  sequences of ints (such as lines numbered so that equal lines get
+ *  equal numbers). Rather than an edit script, it finds a longest common
+ *  subsequence and reports it as, for each element of the first
+ *  sequence, the index of the element of the second it is matched with.
+ *
+ *  Each step finds the "middle snake" of an optimal edit path by
+ *  searching forward from the start and backward from the end at once,
+ *  then recurses on the parts before and after it; common prefixes and
+ *  suffixes are matched off first. The search arrays are kept between
+ *  calls and only grow, so one Diff can be reused for many files.
+ *  @author Marco
+ */
+class Diff {
+
+    /** Furthest x reached on each diagonal by the forward search. */
+    private int[] forward = new int[0];
+    /** Furthest x reached on each diagonal by the backward search,
+     *  counted from the end. */
+    private int[] backward = new int[0];
+
+    /** The sequences being compared, during match. */
+    private int[] a;
+    private int[] b;
+    /** Where match records its result. */
+    private int[] result;
+
+    /** Matches the first N elements of A with the first M of B, setting
+     *  RESULT[i] to the index in B matched with A[i], or to -1 if A[i] is
+     *  not part of the common subsequence. RESULT must have room for N
+     *  elements. */
+    void match(int[] a, int n, int[] b, int m, int[] result) {
+        this.a = a;
+        this.b = b;
+        this.result = result;
+        Arrays.fill(result, 0, n, -1);
+        int size = 2 * (n + m) + 3;
+        if (forward.length < size) {
+            forward = new int[size];
+            backward = new int[size];
+        }
+        compare(0, n, 0, m);
+        this.a = null;
+        this.b = null;
+        this.result = null;
+    }
+
+    /** Matches A[aLo..aHi) with B[bLo..bHi). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            result[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            result[aHi - 1] = bHi - 1;
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        int x0 = snake[0];
+        int y0 = snake[1];
+        int x1 = snake[2];
+        for (int x = x0; x < x1; x += 1) {
+            result[x] = y0 + (x - x0);
+        }
+        compare(aLo, x0, bLo, y0);
+        compare(x1, aHi, y0 + (x1 - x0), bHi);
+    }
+
+    /** Returns {x0, y0, x1, y1}: the start and end, in absolute indices,
+     *  of the middle snake of an optimal path through A[aLo..aHi) and
+     *  B[bLo..bHi), neither of which is empty and which share neither
+     *  first nor last elements. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int offset = n + m + 1;
+        int max = (n + m + 1) / 2;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int kr = delta - k;
+                if (odd && kr >= -(d - 1) && kr <= d - 1
+                        && x + backward[offset + kr] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && backward[offset + k - 1] < backward[offset + k + 1]
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int kf = delta - k;
+                if (!odd && kf >= -d && kf <= d
+                        && x + forward[offset + kf] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** Makes the files of a repository survive a crash. A file is written
+ *  under a temporary name and renamed over its real name, so it is
+ *  always either wholly old or wholly new, and it is flushed to the disk
+ *  (fsync) before anything that refers to it is written.
+ *
+ *  Objects are many and are only of use once a ref reaches them, so
+ *  their flushes are put off: the store names each new object with
+ *  later, and the whole batch is flushed by sync, which is called before
+ *  a ref or the index is replaced. A command killed before then leaves at
+ *  worst some unreferenced objects.
+ *  @author Marco
+ */
+class Durable {
+
+    /** Files written since the last sync, waiting to be flushed. */
+    private static final Set<Path> PENDING = new LinkedHashSet<>();
+
+    /** Notes that FILE has been written and is to be flushed by the next
+     *  sync. */
+    static synchronized void later(Path file) {
+        PENDING.add(file);
+    }
+
+    /** Flushes every file noted by later, and the directories holding
+     *  them, to the disk. */
+    static void sync() {
+        Set<Path> files;
+        synchronized (Durable.class) {
+            files = new LinkedHashSet<>(PENDING);
+            PENDING.clear();
+        }
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (Path file : files) {
+            force(file);
+            dirs.add(file.getParent());
+        }
+        for (Path dir : dirs) {
+            force(dir);
+        }
+    }
+
+    /** Replaces the contents of FILE with CONTENTS, atomically and
+     *  durably, after first flushing the files noted by later. */
+    static void write(File file, byte[] contents) {
+        Path target = file.toPath();
+        Path tmp = target.resolveSibling(file.getName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(contents);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                out.force(true);
+            }
+            rename(tmp, target);
+        } catch (IOException excp) {
+            tmp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replaces the contents of FILE with the UTF-8 bytes of CONTENTS, as
+     *  write(File, byte[]) does. */
+    static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Renames the finished file TMP to TARGET, atomically, after
+     *  flushing it and the files noted by later, which it may refer to,
+     *  and flushes the directory holding TARGET so the new name is kept
+     *  too. */
+    static void rename(Path tmp, Path target) throws IOException {
+        sync();
+        force(tmp);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        force(target.getParent());
+    }
+
+    /** Flushes the file or directory P to the disk. Some systems cannot
+     *  open a directory for this; for them, directories go unflushed. */
+    static void force(Path p) {
+        try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!Files.isDirectory(p)) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
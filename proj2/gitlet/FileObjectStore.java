@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** The ObjectStore kept in one directory of .gitlet. New objects are
+ *  written loose (see LooseObjectStore); repack moves them into a pack
+ *  file in the pack subdirectory (see PackFile). Reads look in both, so
+ *  callers never need to know where an object lives.
+ *  @author Marco
+ */
+class FileObjectStore implements ObjectStore {
+
+    /** Name of the subdirectory holding the packs. */
+    static final String PACK_DIR_NAME = "pack";
+    /** Loose objects longer than this, once inflated, stay out of packs,
+     *  which handle their objects whole in memory. */
+    static final long MAX_PACKED_SIZE = 64L << 20;
+
+    /** The loose objects. */
+    private final LooseObjectStore loose;
+    /** The directory holding the packs. */
+    private final File packDir;
+    /** The open packs, or null until they are first needed. */
+    private List<PackFile> packs;
+
+    FileObjectStore(File dir) {
+        this.loose = new LooseObjectStore(dir);
+        this.packDir = join(dir, PACK_DIR_NAME);
+    }
+
+    /** Returns the packs in this store, opening them on first use. */
+    private synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith("pack-") && name.endsWith(".idx")) {
+                        packs.add(new PackFile(join(packDir, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        if (loose.contains(id)) {
+            return true;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] read(String id) {
+        long start = Trace.start();
+        byte[] contents = find(id);
+        Trace.stop("object.read", start, contents.length);
+        return contents;
+    }
+
+    /** Returns the contents of the object ID, loose or packed. */
+    private byte[] find(String id) {
+        if (loose.contains(id)) {
+            return loose.read(id);
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return pack.read(id);
+            }
+        }
+        throw new IllegalArgumentException("no such object: " + id);
+    }
+
+    @Override
+    public void write(String id, byte[] contents) {
+        long start = Trace.start();
+        if (!contains(id)) {
+            loose.write(id, contents);
+        }
+        Trace.stop("object.write", start, contents.length);
+    }
+
+    /** New objects always start out loose, so FILE is streamed straight
+     *  into the loose store. */
+    @Override
+    public String putFile(File file) {
+        long start = Trace.start();
+        String id = loose.putFile(file);
+        Trace.stop("object.write", start, file.length());
+        return id;
+    }
+
+    @Override
+    public void copyTo(String id, File file) {
+        long start = Trace.start();
+        if (loose.contains(id)) {
+            loose.copyTo(id, file);
+        } else {
+            writeContents(file, read(id));
+        }
+        Trace.stop("worktree.write", start, file.length());
+    }
+
+    @Override
+    public InputStream open(String id) {
+        return loose.contains(id) ? loose.open(id) : ObjectStore.super.open(id);
+    }
+
+    @Override
+    public List<String> ids() {
+        TreeSet<String> result = new TreeSet<>(loose.ids());
+        for (PackFile pack : packs()) {
+            result.addAll(pack.ids());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Moves every object of this store, except for very large ones, into
+     *  a single new pack, storing the objects in each of CHAINS as deltas
+     *  where that pays (see PackWriter.write), and removes the loose
+     *  copies and old packs. Returns the writer used, for its counts. */
+    PackWriter repack(List<List<String>> chains) {
+        return repack(chains, id -> true);
+    }
+
+    /** Deletes every object of this store for which KEEP is false, adding
+     *  the number deleted to RECLAIMED[0] and the bytes freed to
+     *  RECLAIMED[1]. Loose objects are deleted where they lie; if any
+     *  pack holds such an object, the store is repacked without them,
+     *  using the delta chains supplied by CHAINS. */
+    void prune(Predicate<String> keep, Supplier<List<List<String>>> chains,
+               long[] reclaimed) {
+        loose.prune(keep, reclaimed);
+        int garbage = 0;
+        for (PackFile pack : packs()) {
+            for (int k = 0; k < pack.size(); k += 1) {
+                if (!keep.test(pack.idAt(k))) {
+                    garbage += 1;
+                }
+            }
+        }
+        if (garbage == 0) {
+            return;
+        }
+        long before = storedBytes();
+        repack(chains.get(), keep);
+        reclaimed[0] += garbage;
+        reclaimed[1] += before - storedBytes();
+    }
+
+    /** Returns the number of bytes this store takes up on disk. */
+    private long storedBytes() {
+        long result = 0;
+        for (String id : loose.ids()) {
+            result += loose.storedSize(id);
+        }
+        for (PackFile pack : packs()) {
+            result += pack.indexFile().length()
+                    + PackFile.packFileFor(pack.indexFile()).length();
+        }
+        return result;
+    }
+
+    /** Does as repack(CHAINS) does, but leaves out (and removes) the
+     *  objects for which KEEP is false. */
+    private PackWriter repack(List<List<String>> chains, Predicate<String> keep) {
+        List<String> packed = new ArrayList<>();
+        List<String> looseIds = new ArrayList<>();
+        for (String id : ids()) {
+            if (!keep.test(id)) {
+                continue;
+            } else if (!loose.contains(id)) {
+                packed.add(id);
+            } else if (!loose.largerThan(id, MAX_PACKED_SIZE)) {
+                packed.add(id);
+                looseIds.add(id);
+            }
+        }
+        PackWriter writer = new PackWriter(packDir, this);
+        File idx = writer.write(packed, chains);
+        for (PackFile pack : packs()) {
+            if (!pack.indexFile().equals(idx)) {
+                pack.indexFile().delete();
+                PackFile.packFileFor(pack.indexFile()).delete();
+            }
+        }
+        for (String id : looseIds) {
+            loose.remove(id);
+        }
+        packs = null;
+        return writer;
+    }
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import static gitlet.Repository.*;
+
+/** Finds and deletes the objects that no branch and no staged file can
+ *  reach: the commits left behind by rm-branch and reset, with the trees
+ *  and blobs only they used, and the blobs of files staged and then
+ *  replaced or unstaged.
+ *
+ *  Marking starts from the branch heads and the staging area. Commits
+ *  are walked through the commit graph, so only the reachable ones are
+ *  read, and are marked in a bitmap by graph row. Trees and blobs are
+ *  marked in bitmaps by position among the sorted ids of their stores,
+ *  and a tree already marked is not read again, so a subtree shared by
+ *  many commits is walked once. Every walk uses an explicit stack. The
+ *  sweep then goes through each store a directory at a time, deleting
+ *  what is unmarked.
+ *  @author Marco
+ */
+class GarbageCollector {
+
+    /** The reachable commits, by graph row. */
+    private final BitSet commits = new BitSet();
+    /** The ids of the trees and of the blobs, in sorted order. */
+    private final List<String> treeIds = TREES.ids();
+    private final List<String> blobIds = BLOBS.ids();
+    /** The reachable trees and blobs, by position in treeIds and blobIds. */
+    private final BitSet trees = new BitSet(treeIds.size());
+    private final BitSet blobs = new BitSet(blobIds.size());
+
+    /** Marks everything reachable from the commit ids HEADS and from the
+     *  blob ids STAGED. */
+    void mark(List<String> heads, Iterable<String> staged) {
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        for (String head : heads) {
+            pending.push(COMMIT_INDEX.row(head));
+        }
+        ArrayDeque<String> treeStack = new ArrayDeque<>();
+        List<String> blobList = new ArrayList<>();
+        for (String blob : staged) {
+            blobList.add(blob);
+        }
+        while (!pending.isEmpty()) {
+            int row = pending.pop();
+            if (row < 0 || commits.get(row)) {
+                continue;
+            }
+            commits.set(row);
+            treeStack.push(Commit.load(COMMIT_GRAPH.idAt(row)).tree);
+            pending.push(COMMIT_GRAPH.parent1(row));
+            pending.push(COMMIT_GRAPH.parent2(row));
+        }
+        while (!treeStack.isEmpty()) {
+            int k = Collections.binarySearch(treeIds, treeStack.pop());
+            if (k < 0 || trees.get(k)) {
+                continue;
+            }
+            trees.set(k);
+            Tree.children(treeIds.get(k), TREES, treeStack, blobList);
+            markBlobs(blobList);
+        }
+        markBlobs(blobList);
+    }
+
+    /** Marks the blobs in BLOBLIST, and empties it. */
+    private void markBlobs(List<String> blobList) {
+        for (String blob : blobList) {
+            int k = Collections.binarySearch(blobIds, blob);
+            if (k >= 0) {
+                blobs.set(k);
+            }
+        }
+        blobList.clear();
+    }
+
+    /** Deletes every unmarked object, adding the number deleted to
+     *  RECLAIMED[0] and the bytes freed to RECLAIMED[1]. */
+    void sweep(long[] reclaimed) {
+        long commitsBefore = reclaimed[0];
+        COMMITS.prune(id -> {
+            int row = COMMIT_INDEX.row(id);
+            return row < 0 || commits.get(row);
+        }, ArrayList::new, reclaimed);
+        boolean commitsRemoved = reclaimed[0] != commitsBefore;
+        TREES.prune(id -> marked(id, treeIds, trees), ArrayList::new, reclaimed);
+        BLOBS.prune(id -> marked(id, blobIds, blobs), this::versions, reclaimed);
+        if (commitsRemoved) {
+            COMMIT_GRAPH.rebuild();
+            MESSAGE_INDEX.rebuild();
+            JOURNAL.rebuild();
+        }
+        COMMIT_INDEX.rebuild();
+    }
+
+    /** Returns true iff ID is marked in BITS, which is indexed by position
+     *  in IDS. An id not in IDS is newer than the marking and is kept. */
+    private static boolean marked(String id, List<String> ids, BitSet bits) {
+        int k = Collections.binarySearch(ids, id);
+        return k < 0 || bits.get(k);
+    }
+
+    /** Returns the successive versions of each file in the reachable
+     *  commits, as pack does. Only the marks are kept, so the commits are
+     *  read again here, one at a time, in the order of the graph. */
+    private List<List<String>> versions() {
+        Iterable<String> trees = () -> commits.stream()
+                .mapToObj(row -> Commit.load(COMMIT_GRAPH.idAt(row)).tree).iterator();
+        return Tree.versions(trees, TREES);
+    }
+}
@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** The staging area, kept as a single binary file in the manner of git's
+ *  index. It lists every file the next commit will track, with the id of
+ *  the blob holding its staged contents and the size, modification time
+ *  and inode the working file had when it was last seen to hold exactly
+ *  those contents. A file is staged for addition when its entry differs
+ *  from the head commit, and staged for removal when the head commit
+ *  tracks it but the index does not.
+ *
+ *  The recorded stat data lets matches tell that a working file is
+ *  unchanged without reading it. As in git, an entry whose mtime is not
+ *  older than the index file itself is "racy": the file may have changed
+ *  within the same clock tick, so its contents are hashed after all. The
+ *  index file's mtime is taken when it is read and again each time it is
+ *  written, so an index kept in memory by a server ages as the file does.
+ *
+ *  The file is MAGIC, VERSION, the entry count, the entries in path
+ *  order (path, 20-byte blob id, size, mtime in nanoseconds, inode) and
+ *  then the SHA-1 of all that. It is read once per command, changed in
+ *  memory, and written back by write, which replaces the old file with a
+ *  rename.
+ *  @author Marco
+ */
+class Index {
+
+    /** First word of the index file. */
+    static final int MAGIC = 0x474c494e;
+    /** Format version of the index file. */
+    static final int VERSION = 2;
+    /** Length of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** The stat data of a working file that the index remembers. */
+    static class Stat {
+        /** The size in bytes. */
+        final long size;
+        /** The modification time in nanoseconds since the epoch. */
+        final long mtime;
+        /** The inode number, or 0 where the file system has none. */
+        final long inode;
+
+        Stat(long size, long mtime, long inode) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        /** Returns the stat data of F, or null if F does not exist. */
+        static Stat of(File f) {
+            Path path = f.toPath();
+            try {
+                Map<String, Object> attrs =
+                        Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+                return new Stat((Long) attrs.get("size"),
+                        ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                        (Long) attrs.get("ino"));
+            } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                try {
+                    BasicFileAttributes attrs =
+                            Files.readAttributes(path, BasicFileAttributes.class);
+                    return new Stat(attrs.size(),
+                            attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0);
+                } catch (IOException e) {
+                    return null;
+                }
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        /** Returns true iff THIS and OTHER describe the same file state. */
+        boolean sameAs(Stat other) {
+            return size == other.size && mtime == other.mtime
+                    && inode == other.inode;
+        }
+    }
+
+    /** One tracked file. */
+    static class Entry {
+        /** The id of the staged contents. */
+        final String blob;
+        /** The working file's stat data when it last held those contents. */
+        final Stat stat;
+
+        Entry(String blob, Stat stat) {
+            this.blob = blob;
+            this.stat = stat;
+        }
+    }
+
+    /** The file this index is kept in. */
+    private final File file;
+    /** The entries, by path. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** True iff the entries have changed since they were read. */
+    private boolean dirty;
+    /** The modification time of the index file when it was last read or
+     *  written, in nanoseconds; entries modified at or after it are racy. */
+    private long timestamp = Long.MIN_VALUE;
+
+    private Index(File file) {
+        this.file = file;
+    }
+
+    /** Returns the index kept in FILE, which is empty if FILE does not
+     *  exist yet. */
+    static Index read(File file) {
+        Index result = new Index(file);
+        if (!file.isFile()) {
+            return result;
+        }
+        result.timestamp = Stat.of(file).mtime;
+        byte[] bytes = readContents(file);
+        int bodyLength = bytes.length - ID_BYTES;
+        if (bodyLength < 0 || !sha1(Arrays.copyOf(bytes, bodyLength))
+                .equals(bytesToHex(bytes, bodyLength, ID_BYTES))) {
+            throw error("Corrupt index file.");
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, 0, bodyLength))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Unrecognized index file.");
+            }
+            int count = in.readInt();
+            byte[] blob = new byte[ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                in.readFully(blob);
+                Stat stat = new Stat(in.readLong(), in.readLong(), in.readLong());
+                result.entries.put(path, new Entry(bytesToHex(blob, 0, ID_BYTES), stat));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Writes this index back to its file if it has changed. The entries
+     *  go to a temporary file which is flushed to disk and then renamed
+     *  over the old one, so the index is never seen half-written. */
+    void write() {
+        if (!dirty) {
+            return;
+        }
+        long start = Trace.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.write(hexToBytes(e.getValue().blob));
+                Stat stat = e.getValue().stat;
+                out.writeLong(stat.size);
+                out.writeLong(stat.mtime);
+                out.writeLong(stat.inode);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] body = bytes.toByteArray();
+        File tmp = join(file.getParentFile(), file.getName() + ".tmp");
+        try (BufferedOutputStream out =
+                     new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))) {
+            out.write(body);
+            out.write(hexToBytes(sha1(body)));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Durable.rename(tmp.toPath(), file.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+        timestamp = Stat.of(file).mtime;
+        Trace.stop("index.write", start, body.length);
+    }
+
+    /** Returns a copy of this index, to go back to if what is then done
+     *  to this one has to be undone. */
+    Index copy() {
+        Index result = new Index(file);
+        result.entries.putAll(entries);
+        result.dirty = dirty;
+        result.timestamp = timestamp;
+        return result;
+    }
+
+    /** Returns true iff PATH is tracked by this index. */
+    boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    /** Returns the entry for PATH, or null if it is not tracked. */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /** Returns the tracked paths, in sorted order. */
+    Set<String> paths() {
+        return entries.keySet();
+    }
+
+    /** Returns a map from each tracked path to the id of its blob. */
+    TreeMap<String, String> blobs() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            result.put(e.getKey(), e.getValue().blob);
+        }
+        return result;
+    }
+
+    /** Tracks PATH with the contents BLOB, which are also the current
+     *  contents of the working file SOURCE. */
+    void put(String path, String blob, File source) {
+        entries.put(path, new Entry(blob, Stat.of(source)));
+        dirty = true;
+    }
+
+    /** Returns true iff the working file F holds exactly the contents
+     *  staged for PATH. F is only read when its stat data no longer
+     *  matches the entry's (or the entry is racy) but its size does; if
+     *  it then turns out to be unchanged, the entry's stat data is
+     *  refreshed and the index is to be written again, which also makes
+     *  it newer than a racy entry, so that the next check is cheap. */
+    boolean matches(String path, File f) {
+        Entry e = entries.get(path);
+        Stat stat = Stat.of(f);
+        if (e == null || stat == null || stat.size != e.stat.size) {
+            return false;
+        }
+        if (stat.sameAs(e.stat) && e.stat.mtime < timestamp) {
+            return true;
+        }
+        if (!e.blob.equals(sha1(f))) {
+            return false;
+        }
+        if (!stat.sameAs(e.stat)) {
+            entries.put(path, new Entry(e.blob, stat));
+        }
+        dirty = true;
+        return true;
+    }
+
+    /** Stops tracking PATH. */
+    void remove(String path) {
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+}
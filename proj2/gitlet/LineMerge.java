@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A line-level three-way merge in the manner of diff3. The lines of the
+ *  common ancestor ("base") are matched with those of each side using
+ *  Diff. Lines of the base matched on both sides are sync points; the
+ *  stretches between them are taken from whichever side changed them, or
+ *  from either if both changed them the same way. Only a stretch changed
+ *  differently on the two sides is a conflict, and it alone is written
+ *  between markers. Each marker starts a line of its own, so a newline
+ *  is put before one that follows a last line without one.
+ *
+ *  Lines are runs of bytes ending in '\n', compared byte for byte and
+ *  never decoded, so a file in any encoding that keeps '\n' as its own
+ *  byte comes out of the merge exactly as its versions went in. The
+ *  token and match buffers are kept and grown as needed, so one
+ *  LineMerge can be used for every file of a merge.
+ *  @author Marco
+ */
+class LineMerge {
+
+    /** Start of a conflict, before our version. */
+    static final String OURS_MARKER = "<<<<<<< HEAD\n";
+    /** Between our version and theirs. */
+    static final String SEPARATOR = "=======\n";
+    /** End of a conflict, after their version. */
+    static final String THEIRS_MARKER = ">>>>>>>\n";
+
+    /** The differencing engine. */
+    private final Diff diff = new Diff();
+    /** The number given to each distinct line of the current merge. */
+    private final Map<ByteBuffer, Integer> numbers = new HashMap<>();
+    /** The base, ours and theirs, split into lines. */
+    private final Lines baseLines = new Lines();
+    private final Lines ourLines = new Lines();
+    private final Lines theirLines = new Lines();
+    /** For each base line, the matching line of ours and theirs, or -1. */
+    private int[] toOurs = new int[0];
+    private int[] toTheirs = new int[0];
+    /** The number of conflicts found by the last merge. */
+    private int conflicts;
+
+    /** The lines of one version of a file. */
+    private static class Lines {
+        /** The contents. */
+        private byte[] text;
+        /** Where each line starts, then the end of the text. */
+        private int[] starts = new int[1];
+        /** The number of each line. */
+        private int[] tokens = new int[0];
+        /** The number of lines. */
+        private int size;
+
+        /** Appends lines LO..HI to OUT. */
+        void copy(Output out, int lo, int hi) {
+            out.write(text, starts[lo], starts[hi] - starts[lo]);
+        }
+    }
+
+    /** The merged contents, as they are written. */
+    private static class Output extends ByteArrayOutputStream {
+        Output(int size) {
+            super(size);
+        }
+
+        /** Returns true iff what is written so far ends in a line without
+         *  a newline. */
+        boolean inLine() {
+            return count > 0 && buf[count - 1] != '\n';
+        }
+    }
+
+    /** Returns the result of merging the changes from BASE to OURS with
+     *  those from BASE to THEIRS. Call conflicts to learn whether any of
+     *  it had to be left between markers. */
+    byte[] merge(byte[] base, byte[] ours, byte[] theirs) {
+        numbers.clear();
+        tokenize(base, baseLines);
+        tokenize(ours, ourLines);
+        tokenize(theirs, theirLines);
+        int n = baseLines.size;
+        if (toOurs.length < n) {
+            toOurs = new int[n];
+            toTheirs = new int[n];
+        }
+        diff.match(baseLines.tokens, n, ourLines.tokens, ourLines.size, toOurs);
+        diff.match(baseLines.tokens, n, theirLines.tokens, theirLines.size, toTheirs);
+
+        Output out = new Output(Math.max(ours.length, theirs.length));
+        conflicts = 0;
+        int o = 0;
+        int a = 0;
+        int b = 0;
+        while (true) {
+            int from = o;
+            while (o < n && toOurs[o] == a && toTheirs[o] == b) {
+                o += 1;
+                a += 1;
+                b += 1;
+            }
+            baseLines.copy(out, from, o);
+            int next = o;
+            while (next < n && (toOurs[next] < 0 || toTheirs[next] < 0)) {
+                next += 1;
+            }
+            int aEnd = next < n ? toOurs[next] : ourLines.size;
+            int bEnd = next < n ? toTheirs[next] : theirLines.size;
+            if (o == next && a == aEnd && b == bEnd) {
+                break;
+            }
+            boolean oursChanged = !same(baseLines, o, next, ourLines, a, aEnd);
+            boolean theirsChanged = !same(baseLines, o, next, theirLines, b, bEnd);
+            if (!theirsChanged) {
+                ourLines.copy(out, a, aEnd);
+            } else if (!oursChanged || same(ourLines, a, aEnd, theirLines, b, bEnd)) {
+                theirLines.copy(out, b, bEnd);
+            } else {
+                conflicts += 1;
+                mark(out, OURS_MARKER);
+                ourLines.copy(out, a, aEnd);
+                mark(out, SEPARATOR);
+                theirLines.copy(out, b, bEnd);
+                mark(out, THEIRS_MARKER);
+            }
+            o = next;
+            a = aEnd;
+            b = bEnd;
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the number of conflicts left by the last merge. */
+    int conflicts() {
+        return conflicts;
+    }
+
+    /** Splits TEXT into LINES, each with its line terminator, and numbers
+     *  them, reusing the buffers of LINES where they are large enough. */
+    private void tokenize(byte[] text, Lines lines) {
+        lines.text = text;
+        lines.size = 0;
+        for (int start = 0; start < text.length;) {
+            int end = start;
+            while (end < text.length && text[end] != '\n') {
+                end += 1;
+            }
+            end = end < text.length ? end + 1 : end;
+            if (lines.size + 1 == lines.starts.length) {
+                lines.starts = Arrays.copyOf(lines.starts, 2 * lines.starts.length);
+            }
+            lines.starts[lines.size] = start;
+            lines.size += 1;
+            start = end;
+        }
+        lines.starts[lines.size] = text.length;
+        if (lines.tokens.length < lines.size) {
+            lines.tokens = new int[lines.starts.length];
+        }
+        for (int i = 0; i < lines.size; i += 1) {
+            ByteBuffer line = ByteBuffer.wrap(text, lines.starts[i],
+                    lines.starts[i + 1] - lines.starts[i]);
+            Integer number = numbers.get(line);
+            if (number == null) {
+                number = numbers.size();
+                numbers.put(line, number);
+            }
+            lines.tokens[i] = number;
+        }
+    }
+
+    /** Returns true iff lines XLO..XHI of X and YLO..YHI of Y are the same.
+     *  Equal lines have equal numbers, so the numbers are compared. */
+    private static boolean same(Lines x, int xLo, int xHi, Lines y, int yLo, int yHi) {
+        return Arrays.equals(x.tokens, xLo, xHi, y.tokens, yLo, yHi);
+    }
+
+    /** Returns the newline to write between CONTENTS and a marker after
+     *  it: "\n" if CONTENTS ends in a line without one, else "". */
+    static String lineEnd(byte[] contents) {
+        return contents.length > 0 && contents[contents.length - 1] != '\n' ? "\n" : "";
+    }
+
+    /** Appends MARKER to OUT, on a line of its own. */
+    private static void mark(Output out, String marker) {
+        if (out.inLine()) {
+            out.write('\n');
+        }
+        out.writeBytes(marker.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,288 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** An ObjectStore keeping one deflated file per object. Objects are fanned
+ *  out by the first two characters of their id, as in git, so that no
+ *  single directory grows too large: object abcdef... lives in
+ *  DIR/ab/cdef....
+ *  @author Marco
+ */
+class LooseObjectStore implements ObjectStore {
+
+    /** Length of the fan-out directory names. */
+    static final int FANOUT = 2;
+    /** The most that deflate can shrink data: 258 bytes to about two
+     *  bits, with a margin. */
+    static final long MAX_DEFLATE_RATIO = 1032;
+
+    /** The directory holding the fan-out subdirectories. */
+    private final File dir;
+
+    LooseObjectStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** Returns the file that holds (or would hold) the object ID. */
+    File fileFor(String id) {
+        return join(dir, id.substring(0, FANOUT), id.substring(FANOUT));
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return id.length() == UID_LENGTH && fileFor(id).isFile();
+    }
+
+    @Override
+    public byte[] read(String id) {
+        File f = fileFor(id);
+        if (!f.isFile()) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        try (InputStream in = inflating(f)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the object ID. The data goes to a temporary file that is
+     *  then renamed into place, so that concurrent writers of the same
+     *  object never see (or leave) a partly written file. */
+    @Override
+    public void write(String id, byte[] contents) {
+        if (fileFor(id).isFile()) {
+            return;
+        }
+        Path tmp = newTempFile();
+        try {
+            try (OutputStream out = deflating(tmp)) {
+                out.write(contents);
+            }
+            install(tmp, id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            tmp.toFile().delete();
+        }
+    }
+
+    /** Streams FILE through the SHA-1 digest and the compressor into a
+     *  temporary file at the same time, then renames that into place once
+     *  the id is known. */
+    @Override
+    public String putFile(File file) {
+        Path tmp = newTempFile();
+        try {
+            MessageDigest md = sha1Digest();
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 OutputStream out = deflating(tmp)) {
+                ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+                while (in.read(buf) >= 0) {
+                    md.update(buf.array(), 0, buf.position());
+                    out.write(buf.array(), 0, buf.position());
+                    buf.clear();
+                }
+            }
+            byte[] digest = md.digest();
+            String id = bytesToHex(digest, 0, digest.length);
+            if (!fileFor(id).isFile()) {
+                install(tmp, id);
+            }
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            tmp.toFile().delete();
+        }
+    }
+
+    /** Inflates the object ID straight into FILE through its channel. */
+    @Override
+    public void copyTo(String id, File file) {
+        File f = fileFor(id);
+        if (!f.isFile()) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        try (InputStream in = inflating(f);
+             ReadableByteChannel src = Channels.newChannel(in);
+             FileChannel out = FileChannel.open(file.toPath(),
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = 0;
+            for (long n = out.transferFrom(src, pos, STREAM_BUFFER_SIZE); n > 0;
+                 n = out.transferFrom(src, pos, STREAM_BUFFER_SIZE)) {
+                pos += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Inflates the object ID as the stream is read. */
+    @Override
+    public InputStream open(String id) {
+        File f = fileFor(id);
+        if (!f.isFile()) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        try {
+            return inflating(f);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of bytes the object ID takes up on disk. */
+    long storedSize(String id) {
+        return fileFor(id).length();
+    }
+
+    /** Returns true iff the object ID is more than LIMIT bytes long once
+     *  inflated. Deflate shrinks data at most MAX_DEFLATE_RATIO times, so
+     *  an object stored in few enough bytes is not read at all; any other
+     *  is inflated, and thrown away as it goes, until it passes LIMIT. */
+    boolean largerThan(String id, long limit) {
+        if (storedSize(id) * MAX_DEFLATE_RATIO <= limit) {
+            return false;
+        }
+        try (InputStream in = inflating(fileFor(id))) {
+            byte[] buf = new byte[STREAM_BUFFER_SIZE];
+            long size = 0;
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                size += n;
+                if (size > limit) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a new, empty temporary file in this store's directory. */
+    private Path newTempFile() {
+        dir.mkdirs();
+        try {
+            return Files.createTempFile(dir.toPath(), "tmp-", "");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Renames the finished temporary file TMP to be the object ID. It
+     *  is flushed to disk by the next Durable.sync, which comes before
+     *  any ref can reach it. */
+    private void install(Path tmp, String id) throws IOException {
+        File f = fileFor(id);
+        if (f.getParentFile().mkdirs()) {
+            Durable.later(f.getParentFile().toPath());
+        }
+        Files.move(tmp, f.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        Durable.later(f.toPath());
+    }
+
+    /** Returns a stream that deflates what is written to it into FILE. */
+    private static OutputStream deflating(Path file) throws IOException {
+        return new DeflaterOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), STREAM_BUFFER_SIZE));
+    }
+
+    /** Returns a stream of the inflated contents of FILE. */
+    private static InputStream inflating(File file) throws IOException {
+        return new InflaterInputStream(new BufferedInputStream(
+                Files.newInputStream(file.toPath()), STREAM_BUFFER_SIZE));
+    }
+
+    /** Deletes the object ID, and its fan-out directory if that empties. */
+    void remove(String id) {
+        File f = fileFor(id);
+        f.delete();
+        f.getParentFile().delete();
+    }
+
+    /** Deletes every object for which KEEP is false, a fan-out directory
+     *  at a time, along with any temporary files left by killed writers,
+     *  adding the number of objects deleted to RECLAIMED[0] and the bytes
+     *  they took to RECLAIMED[1]. The caller must hold the repository
+     *  lock, so that no temporary file is still being written. */
+    void prune(Predicate<String> keep, long[] reclaimed) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File tmp = join(dir, name);
+            if (name.startsWith("tmp-") && tmp.isFile()) {
+                reclaimed[1] += tmp.length();
+                tmp.delete();
+            }
+        }
+        for (String fanout : subdirsIn(dir)) {
+            File sub = join(dir, fanout);
+            for (String rest : plainFilenamesIn(sub)) {
+                if (!keep.test(fanout + rest)) {
+                    File f = join(sub, rest);
+                    reclaimed[0] += 1;
+                    reclaimed[1] += f.length();
+                    f.delete();
+                }
+            }
+            sub.delete();
+        }
+    }
+
+    @Override
+    public List<String> ids() {
+        List<String> result = new ArrayList<>();
+        for (String fanout : subdirsIn(dir)) {
+            for (String rest : plainFilenamesIn(join(dir, fanout))) {
+                result.add(fanout + rest);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the sorted names of the fan-out subdirectories of DIR. */
+    private static List<String> subdirsIn(File dir) {
+        List<String> result = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return result;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.length() == FANOUT && join(dir, name).isDirectory()) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+}
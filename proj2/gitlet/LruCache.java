@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A map that holds values up to a total weight, such as their size in
+ *  bytes, and makes room for new ones by dropping those least recently
+ *  used. It counts its hits, misses and evictions.
+ *  @author Marco
+ */
+class LruCache<K, V> {
+
+    /** A value and the weight it was counted at. */
+    private static class Slot<V> {
+        final V value;
+        long weight;
+
+        Slot(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** The values, least recently used first. */
+    private final LinkedHashMap<K, Slot<V>> slots = new LinkedHashMap<>(16, 0.75f, true);
+    /** The greatest total weight held. */
+    private final long capacity;
+    /** Gives the weight of a value. */
+    private final ToLongFunction<V> weigher;
+    /** The total weight held. */
+    private long weight;
+    /** The number of lookups that found a value, and that did not. */
+    private long hits;
+    private long misses;
+    /** The number of values dropped to make room. */
+    private long evictions;
+
+    /** A cache holding values of total weight up to CAPACITY, as given by
+     *  WEIGHER. */
+    LruCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value for KEY, or null if it is not held. */
+    V get(K key) {
+        Slot<V> slot = slots.get(key);
+        if (slot == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return slot.value;
+    }
+
+    /** Holds VALUE for KEY, unless it alone weighs more than the
+     *  capacity. */
+    void put(K key, V value) {
+        remove(key);
+        long w = weigher.applyAsLong(value);
+        if (w > capacity) {
+            return;
+        }
+        slots.put(key, new Slot<>(value, w));
+        weight += w;
+        trim();
+    }
+
+    /** Weighs the value for KEY again, after it has grown or shrunk. */
+    void reweigh(K key) {
+        Slot<V> slot = slots.get(key);
+        if (slot == null) {
+            return;
+        }
+        long w = weigher.applyAsLong(slot.value);
+        weight += w - slot.weight;
+        slot.weight = w;
+        trim();
+    }
+
+    /** Drops the value for KEY, if it is held. */
+    void remove(K key) {
+        Slot<V> slot = slots.remove(key);
+        if (slot != null) {
+            weight -= slot.weight;
+        }
+    }
+
+    /** Drops every value. */
+    void clear() {
+        slots.clear();
+        weight = 0;
+    }
+
+    /** Drops the least recently used values until the total weight is
+     *  within the capacity. */
+    private void trim() {
+        Iterator<Map.Entry<K, Slot<V>>> it = slots.entrySet().iterator();
+        while (weight > capacity && it.hasNext()) {
+            weight -= it.next().getValue().weight;
+            it.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Returns the number of lookups that found a value. */
+    long hits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that found nothing. */
+    long misses() {
+        return misses;
+    }
+
+    /** Returns the number of values dropped to make room for others. */
+    long evictions() {
+        return evictions;
+    }
+
+    /** Returns the total weight held. */
+    long weight() {
+        return weight;
+    }
+}
@@ -1,5 +1,10 @@
 package gitlet;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static gitlet.Repository.*;
 import static gitlet.Utils.join;
 
@@ -12,6 +17,21 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        boolean startServer = args.length == 1 && args[0].equals("server");
+        boolean batch = args.length > 0 && args[0].equals("batch");
+        if (args.length > 0 && !startServer && !batch && Client.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /** Runs the command in ARGS, as main does, in this process. If the
+     *  first argument is --trace, the command is traced (see Trace). */
+    static void run(String[] args) {
+        boolean trace = args.length > 0 && args[0].equals("--trace");
+        if (trace) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
@@ -21,12 +41,40 @@ public class Main {
             return;
         }
         String command = args[0];
-        switch (command) {
+        boolean locked = false;
+        Trace.begin(trace);
+        try {
+            if (!command.equals("init")) {
+                locked = Repository.lock();
+            }
+            execute(args);
+            Repository.flush();
+        } catch (GitletException excp) {
+            Repository.discard();
+            System.out.println(excp.getMessage());
+        } finally {
+            if (locked) {
+                Repository.unlock();
+            }
+            Trace.report(args);
+            Trace.end();
+        }
+    }
+
+    /** Runs the command in ARGS against the repository as it stands in
+     *  memory, leaving what it changes there for Repository.flush to
+     *  write. Throws a GitletException if the command fails. */
+    static void execute(String[] args) {
+        switch (args[0]) {
             case "init":
                 Repository.init();
                 break;
             case "add":
-                Repository.add(join(CWD, args[1]));
+                List<File> files = new ArrayList<>();
+                for (int i = 1; i < args.length; i += 1) {
+                    files.add(join(CWD, args[i]));
+                }
+                Repository.add(files);
                 break;
             case "commit":
                 if (args.length != 2 || args[1].equals("")) {
@@ -39,7 +87,7 @@ public class Main {
                 Repository.rm(join(CWD, args[1]));
                 break;
             case "log":
-                Repository.log();
+                log(args);
                 break;
             case "global-log":
                 Repository.globalLog();
@@ -81,9 +129,70 @@ public class Main {
             case "merge":
                 Repository.merge(args[1]);
                 break;
+            case "diff":
+                if (args.length > 3) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                Repository.diff(args.length > 1 ? args[1] : null,
+                        args.length > 2 ? args[2] : null);
+                break;
+            case "pack":
+                Repository.pack();
+                break;
+            case "gc":
+                Repository.gc();
+                break;
+            case "server":
+                if (args.length == 1) {
+                    new Server().run();
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    System.out.println("No gitlet server is running.");
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "batch":
+                if (args.length > 2) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                Batch.run(args.length == 2 ? args[1] : "-");
+                break;
             default:
                 System.out.println("No command with that name exists.");
                 break;
         }
     }
+
+    /** Runs log with the options in ARGS: -n N shows at most N commits and
+     *  --skip K leaves out the newest K. */
+    private static void log(String[] args) {
+        int skip = 0;
+        int limit = -1;
+        for (int i = 1; i < args.length; i += 2) {
+            int value = i + 1 < args.length ? count(args[i + 1]) : -1;
+            if (value < 0) {
+                System.out.println("Incorrect operands.");
+                return;
+            } else if (args[i].equals("-n")) {
+                limit = value;
+            } else if (args[i].equals("--skip")) {
+                skip = value;
+            } else {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        Repository.log(skip, limit);
+    }
+
+    /** Returns the non-negative number written in S, or -1 if S is not one. */
+    private static int count(String s) {
+        try {
+            return Math.max(-1, Integer.parseInt(s));
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
 }
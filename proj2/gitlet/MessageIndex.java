@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** An index of commit messages for find, kept in its own directory.
+ *
+ *  The messages file is MAGIC, VERSION, the number of commits indexed and
+ *  the offset just past the last of their records, followed by one record
+ *  per commit: its 20-byte id, the length of its message in UTF-8 and the
+ *  message. A commit is known by the offset of its record. For every
+ *  distinct trigram (three consecutive bytes) of a message, a posting of
+ *  the trigram and the record's offset is appended to one of 256 bucket
+ *  files, chosen by a hash of the trigram.
+ *
+ *  find only needs messages that contain every trigram of the query, so
+ *  it reads the few buckets those trigrams hash to, intersects their
+ *  postings and checks just the surviving candidates against the query.
+ *  Queries shorter than a trigram are answered by scanning the messages
+ *  file, which is still far cheaper than reading the commits. The index
+ *  is rebuilt from the commit graph whenever its commit count disagrees
+ *  with the graph's. The count and offset are updated last, and the next
+ *  record goes at that offset, so what a crash left of a record is
+ *  overwritten and never read; a posting it left behind can at worst
+ *  name a record that check then rejects.
+ *  @author Marco
+ */
+class MessageIndex {
+
+    /** First word of the messages file. */
+    static final int MAGIC = 0x474c4d49;
+    /** Format version of the messages file. */
+    static final int VERSION = 2;
+    /** Length of a raw SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Size of the header of the messages file. */
+    private static final int HEADER = 20;
+    /** Length of the substrings indexed. */
+    private static final int GRAM = 3;
+    /** Size of one posting: a trigram and a record offset. */
+    private static final int POSTING = GRAM + 8;
+    /** Number of bucket files. */
+    private static final int BUCKETS = 256;
+
+    /** The directory holding the index. */
+    private final File dir;
+    /** The messages file. */
+    private final File messagesFile;
+    /** The commits to index if the index has to be rebuilt. */
+    private final CommitGraph graph;
+
+    /** An index kept in DIR of the messages of the commits in GRAPH. */
+    MessageIndex(File dir, CommitGraph graph) {
+        this.dir = dir;
+        this.messagesFile = join(dir, "messages");
+        this.graph = graph;
+    }
+
+    /** Returns the ids of the commits whose messages contain QUERY, in
+     *  sorted order. */
+    List<String> find(String query) {
+        if (count() != graph.size()) {
+            rebuild();
+        }
+        byte[] key = query.getBytes(StandardCharsets.UTF_8);
+        MappedByteBuffer messages = map(messagesFile);
+        TreeSet<String> result = new TreeSet<>();
+        long end = messages.getLong(12);
+        if (key.length < GRAM) {
+            for (int off = HEADER; off < end;
+                 off += ID_BYTES + 4 + messages.getInt(off + ID_BYTES)) {
+                check(messages, off, query, result);
+            }
+        } else {
+            Set<Long> candidates = null;
+            for (int i = 0; i + GRAM <= key.length; i += 1) {
+                Set<Long> hits = postings(key, i);
+                if (candidates != null) {
+                    hits.retainAll(candidates);
+                }
+                candidates = hits;
+                if (candidates.isEmpty()) {
+                    break;
+                }
+            }
+            for (long off : candidates) {
+                if (off < end) {
+                    check(messages, (int) off, query, result);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Adds the id of the record at OFF in MESSAGES to RESULT if its
+     *  message contains QUERY. */
+    private static void check(MappedByteBuffer messages, int off, String query,
+                              Set<String> result) {
+        byte[] raw = new byte[messages.getInt(off + ID_BYTES)];
+        messages.duplicate().position(off + ID_BYTES + 4).get(raw);
+        if (new String(raw, StandardCharsets.UTF_8).contains(query)) {
+            byte[] id = new byte[ID_BYTES];
+            messages.duplicate().position(off).get(id);
+            result.add(bytesToHex(id, 0, ID_BYTES));
+        }
+    }
+
+    /** Returns the offsets of the records whose messages contain the
+     *  trigram at KEY[I..I+2]. */
+    private Set<Long> postings(byte[] key, int i) {
+        Set<Long> result = new HashSet<>();
+        File bucket = bucketFile(bucket(key, i));
+        if (!bucket.isFile()) {
+            return result;
+        }
+        ByteBuffer postings = ByteBuffer.wrap(readContents(bucket));
+        for (int p = 0; p + POSTING <= postings.limit(); p += POSTING) {
+            if (postings.get(p) == key[i] && postings.get(p + 1) == key[i + 1]
+                    && postings.get(p + 2) == key[i + 2]) {
+                result.add(postings.getLong(p + GRAM));
+            }
+        }
+        return result;
+    }
+
+    /** Adds the commit ID with message MESSAGE, which is the newest commit
+     *  in the graph, to the index. */
+    void add(String id, String message) {
+        if (count() + 1 != graph.size()) {
+            rebuild();
+            return;
+        }
+        ByteArrayOutputStream[] buckets = new ByteArrayOutputStream[BUCKETS];
+        long offset = map(messagesFile).getLong(12);
+        byte[] record = record(id, message, offset, buckets);
+        try (FileChannel channel = FileChannel.open(messagesFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            for (long pos = offset; buf.hasRemaining();) {
+                pos += channel.write(buf, pos);
+            }
+            for (int b = 0; b < BUCKETS; b += 1) {
+                if (buckets[b] != null) {
+                    Files.write(bucketFile(b).toPath(), buckets[b].toByteArray(),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        setCount(count() + 1, offset + record.length);
+    }
+
+    /** Records in the messages file that it holds N commits, whose records
+     *  end at offset END. This is done only once their records and
+     *  postings are all written. */
+    private void setCount(int n, long end) {
+        try (FileChannel channel = FileChannel.open(messagesFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(12).putInt(0, n).putLong(4, end), 8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the record for the commit ID with message MESSAGE, which
+     *  will be at OFFSET in the messages file, and adds its postings to
+     *  BUCKETS, creating the buffers it needs. */
+    private static byte[] record(String id, String message, long offset,
+                                 ByteArrayOutputStream[] buckets) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length; i += 1) {
+            int gram = (text[i] & 0xff) << 16 | (text[i + 1] & 0xff) << 8
+                    | (text[i + 2] & 0xff);
+            if (!seen.add(gram)) {
+                continue;
+            }
+            int b = bucket(text, i);
+            if (buckets[b] == null) {
+                buckets[b] = new ByteArrayOutputStream();
+            }
+            buckets[b].write(text, i, GRAM);
+            buckets[b].writeBytes(ByteBuffer.allocate(8).putLong(offset).array());
+        }
+        return ByteBuffer.allocate(ID_BYTES + 4 + text.length)
+                .put(hexToBytes(id)).putInt(text.length).put(text).array();
+    }
+
+    /** Returns the bucket of the trigram at TEXT[I..I+2]. */
+    private static int bucket(byte[] text, int i) {
+        return ((text[i] & 0xff) * 31 * 31 + (text[i + 1] & 0xff) * 31
+                + (text[i + 2] & 0xff)) % BUCKETS;
+    }
+
+    /** Returns the file holding bucket B. */
+    private File bucketFile(int b) {
+        return join(dir, String.format("%02x", b));
+    }
+
+    /** Returns the number of commits indexed, or -1 if there is no
+     *  usable index. */
+    private int count() {
+        if (messagesFile.length() < HEADER) {
+            return -1;
+        }
+        MappedByteBuffer messages = map(messagesFile);
+        if (messages.getInt(0) != MAGIC || messages.getInt(4) != VERSION) {
+            return -1;
+        }
+        return messages.getInt(8);
+    }
+
+    /** Replaces the index with one of every commit in the graph. */
+    void rebuild() {
+        dir.mkdir();
+        for (int b = 0; b < BUCKETS; b += 1) {
+            bucketFile(b).delete();
+        }
+        ByteArrayOutputStream[] buckets = new ByteArrayOutputStream[BUCKETS];
+        long end;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(messagesFile.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(-1);
+                out.writeLong(0);
+                for (int k = 0; k < graph.size(); k += 1) {
+                    Commit c = Commit.load(graph.idAt(k));
+                    out.write(record(c.id, c.message, out.size(), buckets));
+                }
+                end = out.size();
+            }
+            for (int b = 0; b < BUCKETS; b += 1) {
+                if (buckets[b] != null) {
+                    try (OutputStream out = Files.newOutputStream(bucketFile(b).toPath())) {
+                        buckets[b].writeTo(out);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        setCount(graph.size(), end);
+    }
+
+    /** Returns F mapped read-only. */
+    private static MappedByteBuffer map(File f) {
+        try (FileChannel channel =
+                     FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
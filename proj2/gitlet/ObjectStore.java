@@ -0,0 +1,51 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+import static gitlet.Utils.sha1;
+
+/** A content-addressed store of gitlet objects. Objects are opaque byte
+ *  arrays named by a 40-character hex SHA-1 id.
+ *  @author Marco
+ */
+interface ObjectStore {
+
+    /** Returns true iff an object named ID is in this store. */
+    boolean contains(String id);
+
+    /** Returns the exact bytes of the object named ID. Throws
+     *  IllegalArgumentException if there is no such object. */
+    byte[] read(String id);
+
+    /** Stores CONTENTS as the object named ID, replacing nothing if an
+     *  object with that name already exists. */
+    void write(String id, byte[] contents);
+
+    /** Stores the contents of FILE and returns their id, which is the
+     *  SHA-1 of the contents. FILE is streamed, never held in memory. */
+    String putFile(File file);
+
+    /** Writes the contents of the object ID to FILE, replacing whatever
+     *  FILE held, without holding all of the contents in memory. */
+    void copyTo(String id, File file);
+
+    /** Returns a stream of the contents of the object ID. Stores that
+     *  can should read it as it is consumed rather than all at once.
+     *  Throws IllegalArgumentException if there is no such object. */
+    default InputStream open(String id) {
+        return new ByteArrayInputStream(read(id));
+    }
+
+    /** Returns the ids of all objects in this store, in sorted order. */
+    List<String> ids();
+
+    /** Stores CONTENTS under the SHA-1 of CONTENTS and returns that id. */
+    default String put(byte[] contents) {
+        String id = sha1(contents);
+        write(id, contents);
+        return id;
+    }
+}
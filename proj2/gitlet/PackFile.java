@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/** A read-only pack of objects, written by PackWriter. A pack is a pair of
+ *  files, both of which are memory-mapped, the .pack file in windows of
+ *  WINDOW bytes so that it may be of any length:
+ *
+ *  pack-ID.idx:  MAGIC, VERSION, a 256-entry fan-out table whose entry b
+ *                is the number of ids whose first byte is at most b, the
+ *                sorted 20-byte ids, and then the offset of each object in
+ *                the .pack file (8 bytes each, in the same order).
+ *  pack-ID.pack: MAGIC, VERSION, the object count, and the objects. Each
+ *                object is a type byte (WHOLE or DELTA), for a DELTA the
+ *                offset of its base in this pack, the inflated size, the
+ *                deflated size, and the deflated data.
+ *
+ *  Looking up an id is a binary search confined by the fan-out table.
+ *  Sizes are ints, so one object must be shorter than 2 GiB, as the ones
+ *  FileObjectStore packs are by far.
+ *  @author Marco
+ */
+class PackFile {
+
+    /** First word of a pack's .idx file. */
+    static final int IDX_MAGIC = 0x474c4958;
+    /** First word of a pack's .pack file. */
+    static final int PACK_MAGIC = 0x474c504b;
+    /** Format version of both files. */
+    static final int VERSION = 1;
+    /** Type of an object stored in full. */
+    static final int WHOLE = 0;
+    /** Type of an object stored as a delta against another. */
+    static final int DELTA = 1;
+    /** Length of a raw SHA-1 id. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Offset of the fan-out table in the .idx file. */
+    private static final int FANOUT_START = 8;
+    /** Offset of the sorted ids in the .idx file. */
+    private static final int IDS_START = FANOUT_START + 256 * 4;
+    /** The length of each mapped window of the .pack file. */
+    static final long WINDOW = 1L << 30;
+
+    /** The mapped .idx file. */
+    private final MappedByteBuffer index;
+    /** The mapped .pack file, window by window. */
+    private final MappedByteBuffer[] pack;
+    /** The number of objects in this pack. */
+    private final int count;
+    /** The .idx file, named for the pack. */
+    private final File idxFile;
+
+    /** Opens the pack whose index is IDXFILE. */
+    PackFile(File idxFile) {
+        this.idxFile = idxFile;
+        this.index = map(idxFile);
+        this.pack = mapWindows(packFileFor(idxFile));
+        ByteBuffer header = ByteBuffer.allocate(8);
+        read(0, header.array());
+        if (index.getInt(0) != IDX_MAGIC || index.getInt(4) != VERSION
+                || header.getInt(0) != PACK_MAGIC || header.getInt(4) != VERSION) {
+            throw error("Unrecognized pack file %s.", idxFile.getName());
+        }
+        this.count = index.getInt(FANOUT_START + 255 * 4);
+    }
+
+    /** Returns the .pack file that goes with IDXFILE. */
+    static File packFileFor(File idxFile) {
+        String name = idxFile.getName();
+        return join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+    }
+
+    /** Returns the .idx file of this pack. */
+    File indexFile() {
+        return idxFile;
+    }
+
+    /** Returns FILE mapped read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel =
+                     FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns FILE mapped read-only into memory, as windows of WINDOW
+     *  bytes (the last one shorter). */
+    private static MappedByteBuffer[] mapWindows(File file) {
+        try (FileChannel channel =
+                     FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int windows = (int) ((size + WINDOW - 1) / WINDOW);
+            MappedByteBuffer[] result = new MappedByteBuffer[windows];
+            for (int w = 0; w < result.length; w += 1) {
+                result[w] = channel.map(FileChannel.MapMode.READ_ONLY, w * WINDOW,
+                        Math.min(WINDOW, size - w * WINDOW));
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Fills DST with the bytes of the .pack file from POSITION on,
+     *  crossing from one window to the next as needed. */
+    private void read(long position, byte[] dst) {
+        for (int n = 0; n < dst.length;) {
+            ByteBuffer window = pack[(int) (position / WINDOW)].duplicate();
+            window.position((int) (position % WINDOW));
+            int k = Math.min(dst.length - n, window.remaining());
+            window.get(dst, n, k);
+            n += k;
+            position += k;
+        }
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the position of ID among the sorted ids of this pack, or
+     *  -1 if it is not here. */
+    int find(String id) {
+        if (id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = hexToBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(FANOUT_START + (first - 1) * 4);
+        int hi = index.getInt(FANOUT_START + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id at position K with KEY, as unsigned bytes. */
+    private int compareId(int k, byte[] key) {
+        int base = IDS_START + k * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = (index.get(base + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the id at position K. */
+    String idAt(int k) {
+        byte[] raw = new byte[ID_BYTES];
+        index.duplicate().position(IDS_START + k * ID_BYTES).get(raw);
+        return bytesToHex(raw, 0, ID_BYTES);
+    }
+
+    /** Returns the offset in the .pack file of the object at position K. */
+    long offsetAt(int k) {
+        return index.getLong(IDS_START + count * ID_BYTES + k * 8);
+    }
+
+    /** Returns true iff ID is in this pack. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the contents of the object ID, which must be in this pack. */
+    byte[] read(String id) {
+        int k = find(id);
+        if (k < 0) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        return readAt(offsetAt(k));
+    }
+
+    /** Returns all the ids in this pack, in sorted order. */
+    List<String> ids() {
+        List<String> result = new ArrayList<>(count);
+        for (int k = 0; k < count; k += 1) {
+            result.add(idAt(k));
+        }
+        return result;
+    }
+
+    /** Returns the contents of the object stored at OFFSET, applying any
+     *  chain of deltas. */
+    byte[] readAt(long offset) {
+        byte[] type = new byte[1];
+        read(offset, type);
+        ByteBuffer header = ByteBuffer.allocate(type[0] == DELTA ? 16 : 8);
+        read(offset + 1, header.array());
+        long baseOffset = type[0] == DELTA ? header.getLong() : -1;
+        int size = header.getInt();
+        byte[] deflated = new byte[header.getInt()];
+        read(offset + 1 + header.capacity(), deflated);
+        byte[] data = inflate(deflated, size);
+        if (type[0] == DELTA) {
+            return Delta.apply(readAt(baseOffset), data);
+        }
+        return data;
+    }
+
+    /** Returns the SIZE bytes that DEFLATED inflates to. */
+    private static byte[] inflate(byte[] deflated, int size) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            byte[] result = new byte[size];
+            int n = 0;
+            while (n < size) {
+                int k = inflater.inflate(result, n, size - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalArgumentException("truncated pack entry");
+                }
+                n += k;
+            }
+            return result;
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
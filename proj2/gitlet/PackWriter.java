@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+import static gitlet.Utils.*;
+
+/** Writes the objects of an ObjectStore into a single pack, in the format
+ *  described in PackFile.
+ *  @author Marco
+ */
+class PackWriter {
+
+    /** The longest chain of deltas an object may sit at the end of. */
+    static final int MAX_DEPTH = 10;
+
+    /** The directory the pack goes in. */
+    private final File dir;
+    /** Where the objects are read from. */
+    private final ObjectStore source;
+    /** The number of objects written so far. */
+    private int written;
+    /** How many of those were stored as deltas. */
+    private int deltas;
+
+    /** A writer of packs in DIR holding objects read from SOURCE. */
+    PackWriter(File dir, ObjectStore source) {
+        this.dir = dir;
+        this.source = source;
+    }
+
+    /** Returns the number of objects written. */
+    int written() {
+        return written;
+    }
+
+    /** Returns the number of objects written as deltas. */
+    int deltas() {
+        return deltas;
+    }
+
+    /** Writes a pack of all the objects named in IDS and returns its .idx
+     *  file. Each list in CHAINS is a sequence of similar objects, such as
+     *  successive versions of one file; each of them is stored as a delta
+     *  against the one before it when that saves enough space. */
+    File write(Collection<String> ids, List<List<String>> chains) {
+        Set<String> wanted = new TreeSet<>(ids);
+        LinkedHashSet<String> order = new LinkedHashSet<>();
+        Map<String, String> baseOf = new HashMap<>();
+        for (List<String> chain : chains) {
+            String prev = null;
+            for (String id : chain) {
+                if (wanted.contains(id) && order.add(id)) {
+                    if (prev != null) {
+                        baseOf.put(id, prev);
+                    }
+                    prev = id;
+                }
+            }
+        }
+        order.addAll(wanted);
+
+        dir.mkdirs();
+        File tmpPack = join(dir, "tmp-pack");
+        File tmpIdx = join(dir, "tmp-idx");
+        Map<String, Long> offsets = new HashMap<>();
+        try {
+            Map<String, Integer> depths = new HashMap<>();
+            String lastId = null;
+            byte[] last = null;
+            long offset = 12;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmpPack.toPath())))) {
+                out.writeInt(PackFile.PACK_MAGIC);
+                out.writeInt(PackFile.VERSION);
+                out.writeInt(order.size());
+                for (String id : order) {
+                    byte[] data = source.read(id);
+                    String base = baseOf.get(id);
+                    byte[] delta = null;
+                    if (base != null && base.equals(lastId)
+                            && depths.getOrDefault(base, 0) < MAX_DEPTH) {
+                        delta = Delta.create(last, data);
+                        if (delta.length > data.length / 2) {
+                            delta = null;
+                        }
+                    }
+                    offsets.put(id, offset);
+                    byte[] payload = deflate(delta == null ? data : delta);
+                    if (delta == null) {
+                        out.writeByte(PackFile.WHOLE);
+                        offset += 1;
+                    } else {
+                        out.writeByte(PackFile.DELTA);
+                        out.writeLong(offsets.get(base));
+                        offset += 9;
+                        depths.put(id, depths.getOrDefault(base, 0) + 1);
+                        deltas += 1;
+                    }
+                    out.writeInt(delta == null ? data.length : delta.length);
+                    out.writeInt(payload.length);
+                    out.write(payload);
+                    offset += 8 + payload.length;
+                    written += 1;
+                    lastId = id;
+                    last = data;
+                }
+            }
+            List<String> sorted = new ArrayList<>(wanted);
+            writeIndex(tmpIdx, sorted, offsets);
+            String name = "pack-" + sha1(String.join("", sorted));
+            File idx = join(dir, name + ".idx");
+            Durable.rename(tmpPack.toPath(), join(dir, name + ".pack").toPath());
+            Durable.rename(tmpIdx.toPath(), idx.toPath());
+            return idx;
+        } catch (IOException excp) {
+            tmpPack.delete();
+            tmpIdx.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the index of a pack holding the SORTED ids, each at the
+     *  offset given by OFFSETS, to FILE. */
+    private static void writeIndex(File file, List<String> sorted,
+                                   Map<String, Long> offsets) throws IOException {
+        int[] fanout = new int[256];
+        for (String id : sorted) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 1; b < 256; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath())))) {
+            out.writeInt(PackFile.IDX_MAGIC);
+            out.writeInt(PackFile.VERSION);
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (String id : sorted) {
+                out.write(hexToBytes(id));
+            }
+            for (String id : sorted) {
+                out.writeLong(offsets.get(id));
+            }
+        }
+    }
+
+    /** Returns DATA compressed with deflate. */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buf = new byte[Math.max(64, data.length / 2)];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+            }
+            n += deflater.deflate(buf, n, buf.length - n);
+        }
+        deflater.end();
+        return Arrays.copyOf(buf, n);
+    }
+}
@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/** Runs independent pieces of work, such as hashing and storing files, on
+ *  a bounded number of worker threads.
+ *  @author Marco
+ */
+class Parallel {
+
+    /** Environment variable that sets the number of worker threads. */
+    static final String THREADS_VAR = "GITLET_THREADS";
+
+    /** Returns the number of worker threads to use: GITLET_THREADS if it
+     *  is set, and otherwise the number of available processors. */
+    static int defaultThreads() {
+        String value = System.getenv(THREADS_VAR);
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException excp) {
+                throw Utils.error("%s must be a number.", THREADS_VAR);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Returns the results of applying FN to each of ITEMS, in the order of
+     *  ITEMS, using at most THREADS threads. Each worker takes the next
+     *  unclaimed item until none are left, so a few large items do not hold
+     *  up the rest. If FN throws, one of its exceptions is rethrown here. */
+    static <T, R> List<R> map(List<T> items, int threads, Function<T, R> fn) {
+        int workers = Math.min(threads, items.size());
+        if (workers <= 1) {
+            List<R> result = new ArrayList<>(items.size());
+            for (T item : items) {
+                result.add(fn.apply(item));
+            }
+            return result;
+        }
+        Object[] results = new Object[items.size()];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w += 1) {
+                futures.add(pool.submit(() -> {
+                    for (int k = next.getAndIncrement(); k < results.length;
+                         k = next.getAndIncrement()) {
+                        results[k] = fn.apply(items.get(k));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(excp);
+        } finally {
+            pool.shutdownNow();
+        }
+        @SuppressWarnings("unchecked")
+        List<R> result = (List<R>) Arrays.asList(results);
+        return result;
+    }
+}
@@ -0,0 +1,280 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The branches of a repository and HEAD, the name of the current
+ *  branch. All reading and writing of them goes through here.
+ *
+ *  A branch is stored either loose, as a file in the branches directory
+ *  holding the id of its newest commit, or packed, as a line "ID NAME" of
+ *  the packed-refs file, whose lines are sorted by name. A loose branch
+ *  overrides a packed one of the same name. New and moved branches are
+ *  written loose, and pack moves every branch into packed-refs, so that
+ *  a repository with thousands of branches reads one file to list them
+ *  and finds one by binary search instead of by opening its file.
+ *
+ *  HEAD, packed-refs and the names of the loose branches are each read
+ *  at most once, and every branch read is remembered: the process holds
+ *  the repository lock, so nothing else changes them. discard forgets
+ *  all this, as when a server's command fails.
+ *
+ *  Normally each change is written (durably, see Durable) as it is
+ *  made. While writes are deferred, as in a batch, changes are kept in
+ *  memory, where reads see them, and written only by flush, so a branch
+ *  that moves a thousand times between checkpoints is written once.
+ *  @author Marco
+ */
+class Refs {
+
+    /** The file naming the current branch. */
+    private final File headFile;
+    /** The directory holding a file for each loose branch. */
+    private final File dir;
+    /** The file holding the packed branches. */
+    private final File packedFile;
+
+    /** The name of the current branch, or null if not yet read. */
+    private String head;
+    /** The names of the packed branches, in sorted order, and their ids,
+     *  or null if not yet read. */
+    private String[] packedNames;
+    private String[] packedIds;
+    /** The names of the loose branches, or null if not yet listed. */
+    private TreeSet<String> looseNames;
+    /** The ids of the loose branches read so far, by name. */
+    private final Map<String, String> loose = new HashMap<>();
+
+    /** True iff changes wait for flush. */
+    private boolean deferred;
+    /** The changed branches and the ids they now hold, or null for those
+     *  removed, while writes are deferred. */
+    private final Map<String, String> pending = new TreeMap<>();
+    /** True iff HEAD has changed but not been written. */
+    private boolean headPending;
+    /** The pending changes, HEAD and headPending as of the last savepoint,
+     *  or null if there is none. */
+    private Map<String, String> savedPending;
+    private String savedHead;
+    private boolean savedHeadPending;
+
+    /** The branches kept in DIR and in PACKEDFILE, with HEADFILE naming
+     *  the current one. */
+    Refs(File headFile, File dir, File packedFile) {
+        this.headFile = headFile;
+        this.dir = dir;
+        this.packedFile = packedFile;
+    }
+
+    /** Returns the name of the current branch. */
+    String head() {
+        if (head == null) {
+            head = readContentsAsString(headFile);
+        }
+        return head;
+    }
+
+    /** Makes BRANCH the current branch. */
+    void setHead(String branch) {
+        head = branch;
+        if (deferred) {
+            headPending = true;
+        } else {
+            Durable.write(headFile, branch);
+        }
+    }
+
+    /** Returns the id of the newest commit of BRANCH, or null if there is
+     *  no such branch. */
+    String get(String branch) {
+        if (pending.containsKey(branch)) {
+            return pending.get(branch);
+        }
+        if (looseNames().contains(branch)) {
+            return loose.computeIfAbsent(branch,
+                    b -> readContentsAsString(join(dir, b)));
+        }
+        readPacked();
+        int k = Arrays.binarySearch(packedNames, branch);
+        return k >= 0 ? packedIds[k] : null;
+    }
+
+    /** Makes ID the newest commit of BRANCH, creating BRANCH if need be. */
+    void set(String branch, String id) {
+        if (deferred) {
+            pending.put(branch, id);
+        } else {
+            writeLoose(branch, id);
+        }
+    }
+
+    /** Removes BRANCH. */
+    void delete(String branch) {
+        if (deferred) {
+            pending.put(branch, null);
+        } else {
+            remove(branch);
+        }
+    }
+
+    /** Returns the names of all branches, in sorted order. */
+    List<String> branches() {
+        readPacked();
+        TreeSet<String> result = new TreeSet<>(Arrays.asList(packedNames));
+        result.addAll(looseNames());
+        for (Map.Entry<String, String> e : pending.entrySet()) {
+            if (e.getValue() == null) {
+                result.remove(e.getKey());
+            } else {
+                result.add(e.getKey());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Moves every branch into packed-refs, leaving none loose. */
+    void pack() {
+        flush();
+        List<String> names = branches();
+        String[] ids = new String[names.size()];
+        for (int i = 0; i < ids.length; i += 1) {
+            ids[i] = get(names.get(i));
+        }
+        writePacked(names.toArray(new String[0]), ids);
+        for (String name : looseNames()) {
+            join(dir, name).delete();
+        }
+        looseNames.clear();
+        loose.clear();
+    }
+
+    /** Keeps changes in memory until flush if DEFER, and otherwise writes
+     *  them as they are made. */
+    void defer(boolean defer) {
+        deferred = defer;
+    }
+
+    /** Remembers the changes now kept in memory, for discard to go back
+     *  to. */
+    void savepoint() {
+        savedPending = new TreeMap<>(pending);
+        savedHead = head;
+        savedHeadPending = headPending;
+    }
+
+    /** Forgets every change kept in memory since the last savepoint, or
+     *  since the last flush if there is none, and everything read, so
+     *  that the next use reads the branches and HEAD as they are on disk. */
+    void discard() {
+        pending.clear();
+        headPending = false;
+        head = null;
+        if (savedPending != null) {
+            pending.putAll(savedPending);
+            headPending = savedHeadPending;
+            head = savedHeadPending ? savedHead : null;
+            savedPending = null;
+        }
+        packedNames = null;
+        packedIds = null;
+        looseNames = null;
+        loose.clear();
+    }
+
+    /** Writes every change kept in memory: the branches first, then HEAD,
+     *  which may name a new branch, and last the removals. */
+    void flush() {
+        for (Map.Entry<String, String> e : pending.entrySet()) {
+            if (e.getValue() != null) {
+                writeLoose(e.getKey(), e.getValue());
+            }
+        }
+        if (headPending) {
+            Durable.write(headFile, head);
+            headPending = false;
+        }
+        for (Map.Entry<String, String> e : pending.entrySet()) {
+            if (e.getValue() == null) {
+                remove(e.getKey());
+            }
+        }
+        pending.clear();
+        savedPending = null;
+    }
+
+    /** Writes BRANCH, holding ID, as a loose branch. */
+    private void writeLoose(String branch, String id) {
+        Durable.write(join(dir, branch), id);
+        looseNames().add(branch);
+        loose.put(branch, id);
+    }
+
+    /** Removes BRANCH, both loose and packed. */
+    private void remove(String branch) {
+        if (looseNames().remove(branch)) {
+            join(dir, branch).delete();
+            loose.remove(branch);
+        }
+        readPacked();
+        int k = Arrays.binarySearch(packedNames, branch);
+        if (k < 0) {
+            return;
+        }
+        String[] names = new String[packedNames.length - 1];
+        String[] ids = new String[names.length];
+        System.arraycopy(packedNames, 0, names, 0, k);
+        System.arraycopy(packedNames, k + 1, names, k, names.length - k);
+        System.arraycopy(packedIds, 0, ids, 0, k);
+        System.arraycopy(packedIds, k + 1, ids, k, ids.length - k);
+        writePacked(names, ids);
+    }
+
+    /** Returns the names of the loose branches, listing them the first
+     *  time. */
+    private TreeSet<String> looseNames() {
+        if (looseNames == null) {
+            looseNames = new TreeSet<>(plainFilenamesIn(dir));
+        }
+        return looseNames;
+    }
+
+    /** Reads packed-refs, if it has not been read. */
+    private void readPacked() {
+        if (packedNames != null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        if (packedFile.isFile()) {
+            String packed = new String(readContents(packedFile), StandardCharsets.UTF_8);
+            for (int start = 0, end; start < packed.length(); start = end + 1) {
+                end = packed.indexOf('\n', start);
+                int space = packed.indexOf(' ', start);
+                ids.add(packed.substring(start, space));
+                names.add(packed.substring(space + 1, end));
+            }
+        }
+        packedNames = names.toArray(new String[0]);
+        packedIds = ids.toArray(new String[0]);
+    }
+
+    /** Makes NAMES, which are sorted, and their IDS the packed branches. */
+    private void writePacked(String[] names, String[] ids) {
+        StringBuilder packed = new StringBuilder();
+        for (int i = 0; i < names.length; i += 1) {
+            packed.append(ids[i]).append(' ').append(names[i]).append('\n');
+        }
+        Durable.write(packedFile, packed.toString());
+        packedNames = names;
+        packedIds = ids;
+    }
+}
@@ -1,7 +1,20 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.stream.IntStream;
 
 import static gitlet.Utils.*;
 import static gitlet.Utils.readContentsAsString;
@@ -15,21 +28,68 @@ public class Repository {
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
-    /** The staging area directory. */
-    public static final File STAGING_DIR = join(GITLET_DIR, "staging");
     /** The commits' directory. */
     public static final File COMMITS_DIR = join(GITLET_DIR, "commits");
     /** The blobs' directory. */
     public static final File BLOBS_DIR = join(GITLET_DIR, "blobs");
+    /** The trees' directory. */
+    public static final File TREES_DIR = join(GITLET_DIR, "trees");
     /** The branches' directory. */
     public static final File BRANCH_DIR = join(GITLET_DIR, "branches");
-
-    /** Add Tracker's directory */
-    public static final File ADD_TRACKER_DIR = join(STAGING_DIR, "ADD");
-    /** Del Tracker's directory */
-    public static final File DEL_TRACKER_DIR = join(STAGING_DIR, "DEL");
+    /** The index file (the staging area) */
+    public static final File INDEX_FILE = join(GITLET_DIR, "index");
     /** The HEAD (Pointer to the active branch) */
     public static final File HEAD = join(GITLET_DIR, "HEAD");
+    /** The branches moved out of BRANCH_DIR by pack, sorted by name. */
+    public static final File PACKED_REFS = join(GITLET_DIR, "packed-refs");
+    /** The lock held by the running command, so that no other can change
+     *  the repository under it. */
+    public static final File LOCK_FILE = join(GITLET_DIR, "index.lock");
+
+    /** The store holding file contents, named by the SHA-1 of the contents. */
+    static final FileObjectStore BLOBS = new FileObjectStore(BLOBS_DIR);
+    /** The store holding directory trees, named by the SHA-1 of the tree. */
+    static final FileObjectStore TREES = new FileObjectStore(TREES_DIR);
+    /** The store holding serialized commits, named by commit id. */
+    static final FileObjectStore COMMITS = new FileObjectStore(COMMITS_DIR);
+    /** The parents and generation numbers of every commit. */
+    static final CommitGraph COMMIT_GRAPH =
+            new CommitGraph(join(GITLET_DIR, "commit-graph"), COMMITS);
+    /** The sorted index of commit ids, for expanding abbreviated ids and
+     *  finding commits in COMMIT_GRAPH. */
+    static final CommitIndex COMMIT_INDEX =
+            new CommitIndex(join(GITLET_DIR, "commit-index"), COMMIT_GRAPH);
+
+    /** The format of the dates shown by log, as in git. */
+    private static final DateTimeFormatter LOG_DATE = DateTimeFormatter
+            .ofPattern("EEE MMM dd HH:mm:ss yyyy Z",
+                    Locale.getDefault(Locale.Category.FORMAT))
+            .withZone(ZoneId.systemDefault());
+
+    /** The index of commit messages searched by find. */
+    static final MessageIndex MESSAGE_INDEX =
+            new MessageIndex(join(GITLET_DIR, "find"), COMMIT_GRAPH);
+
+    /** Every commit in the order made, for global-log. */
+    static final CommitJournal JOURNAL =
+            new CommitJournal(join(GITLET_DIR, "journal"), COMMIT_GRAPH, COMMITS);
+
+    /** The commits and blobs already read, so that none is read twice. */
+    static final Session SESSION = new Session();
+    /** The branches and HEAD. */
+    static final Refs REFS = new Refs(HEAD, BRANCH_DIR, PACKED_REFS);
+
+    /** The staging area, read on first use by the current command. */
+    private static Index index;
+    /** The staging area as of the last savepoint, or null. */
+    private static Index savedIndex;
+    /** True iff this process holds the repository lock. */
+    private static boolean locked;
+    /** True iff a Server is watching the working tree, so that the list
+     *  of working files can be kept until it reports a change. */
+    private static boolean watched;
+    /** The working files, while watched and unchanged, or null. */
+    private static List<String> workingFiles;
 
     public static void init() {
         if (GITLET_DIR.exists()) {
@@ -38,375 +98,632 @@ public class Repository {
             return;
         }
         initDirs();
-        // creates the Master branch
-        File master = join(BRANCH_DIR, "master");
         // send an initial commit
         Commit initCommit = new Commit();
-        File initCommitFile = join(COMMITS_DIR, initCommit.id);
-        // set the HEAD pointer and the BRANCH pointer
-        writeContents(master, initCommit.id);
-        writeContents(HEAD, "master");
         // save the commit
-        writeObject(initCommitFile, initCommit);
+        initCommit.save();
+        record(initCommit);
+        // set the HEAD pointer and the BRANCH pointer
+        REFS.set("master", initCommit.id);
+        REFS.setHead("master");
     }
 
     private static void initDirs() {
         GITLET_DIR.mkdir();
-        STAGING_DIR.mkdir();
         COMMITS_DIR.mkdir();
         BLOBS_DIR.mkdir();
+        TREES_DIR.mkdir();
         BRANCH_DIR.mkdir();
-        writeObject(ADD_TRACKER_DIR, new HashSet<>());
-        writeObject(DEL_TRACKER_DIR, new HashSet<>());
     }
 
-    private static void addToAddTracker(String filename) {
-        HashSet<String> addTracker = readObject(ADD_TRACKER_DIR, HashSet.class);
-        addTracker.add(filename);
-        writeObject(ADD_TRACKER_DIR, addTracker);
+    /**
+     * Returns the staging area, reading it the first time it is needed.
+     */
+    private static Index index() {
+        if (index == null) {
+            index = Index.read(INDEX_FILE);
+        }
+        return index;
     }
 
-    private static void addToDelTracker(String filename) {
-        HashSet<String> delTracker = readObject(DEL_TRACKER_DIR, HashSet.class);
-        delTracker.add(filename);
-        writeObject(DEL_TRACKER_DIR, delTracker);
+    /**
+     * Writes back whatever the current command changed in the staging
+     * area, and any branch changes held back by Refs. Called once, after a
+     * command has finished successfully, or at a checkpoint of a batch.
+     */
+    public static void flush() {
+        if (index != null) {
+            index.write();
+        }
+        savedIndex = null;
+        REFS.flush();
+    }
+
+    /**
+     * Remembers what has been changed in memory but not written, so that
+     * discard goes back to it rather than to what is on disk. A batch
+     * takes a savepoint before each command, so that a command that fails
+     * loses only its own changes.
+     */
+    static void savepoint() {
+        savedIndex = index == null ? null : index.copy();
+        REFS.savepoint();
+    }
+
+    /**
+     * Forgets whatever the current command changed in memory but did not
+     * write, so that a server's next command starts from what is on
+     * disk, or a batch's from its last savepoint. Called when a command
+     * fails.
+     */
+    public static void discard() {
+        index = savedIndex;
+        savedIndex = null;
+        workingFiles = null;
+        REFS.discard();
+    }
+
+    /** Notes that a Server is now watching the working tree, and will
+     *  call workingTreeChanged whenever it changes. */
+    static void watchWorkingTree() {
+        watched = true;
+    }
+
+    /** Notes that files in the working tree may have been added or
+     *  removed. */
+    static void workingTreeChanged() {
+        workingFiles = null;
+    }
+
+    /**
+     * Takes the repository lock, by creating LOCK_FILE, which must not
+     * already exist. A second command run while another holds it fails
+     * at once rather than waiting, as does every command after one that
+     * was killed, until the stale lock is deleted. Returns false, doing
+     * nothing, if this process (a server) already holds the lock.
+     */
+    public static boolean lock() {
+        if (locked) {
+            return false;
+        }
+        try {
+            Files.createFile(LOCK_FILE.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            error("Unable to lock the repository: " + LOCK_FILE.getPath()
+                    + " exists. Another gitlet command may be running;"
+                    + " if not, delete that file.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        locked = true;
+        return true;
+    }
+
+    /** Releases the lock taken by lock. */
+    public static void unlock() {
+        locked = false;
+        LOCK_FILE.delete();
+    }
+
+    /**
+     * Returns the path of F relative to the working directory, with '/'
+     * between names, or null if F is not in the working directory (or is
+     * in .gitlet).
+     */
+    static String pathOf(File f) {
+        return pathOf(f.toPath());
+    }
+
+    /** Returns the path of the file at P as pathOf(File) does. */
+    private static String pathOf(Path p) {
+        Path path = CWD.toPath().toAbsolutePath().normalize()
+                .relativize(p.toAbsolutePath().normalize());
+        if (path.toString().isEmpty() || path.startsWith("..")
+                || path.startsWith(GITLET_DIR.getName())) {
+            return null;
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns the paths of all plain files under DIR, except those in
+     * .gitlet, relative to the working directory and in sorted order.
+     */
+    private static List<String> workingFiles(File dir) {
+        List<String> result = new ArrayList<>();
+        // normalized, so that "." or "d/.." still finds and skips .gitlet
+        Path start = dir.toPath().toAbsolutePath().normalize();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                    return d.toFile().equals(GITLET_DIR) ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        result.add(pathOf(f));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns workingFiles(CWD), which a watched working tree lets us
+     * keep from one command to the next.
+     */
+    private static List<String> allWorkingFiles() {
+        if (!watched) {
+            return workingFiles(CWD);
+        }
+        if (workingFiles == null) {
+            workingFiles = Collections.unmodifiableList(workingFiles(CWD));
+        }
+        return workingFiles;
+    }
+
+    /**
+     * Deletes the working file at PATH, and then any directories that
+     * deleting it left empty.
+     */
+    private static void deleteWorkingFile(String path) {
+        File f = join(CWD, path);
+        if (f.isFile()) {
+            f.delete();
+        }
+        File dir = f.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
     }
 
     private static boolean inCommit(Commit c, String filename) {
-        return c.fileToBlobs.containsKey(filename);
+        return c.files().containsKey(filename);
     }
 
     private static void error(String message) {
-        System.out.println(message);
-        System.exit(0);
+        throw new GitletException(message);
     }
 
     /**
      * Gets the newest commit in the active branch
      */
     static Commit getCurHead() {
-        File activeBranch = join(BRANCH_DIR, readContentsAsString(HEAD));
-        String parentCommitID = readContentsAsString(activeBranch);
-        return readObject(join(COMMITS_DIR, parentCommitID), Commit.class);
+        return Commit.load(headId());
     }
 
-    private static boolean sameInHeadCommit(File f) {
-        Commit head = getCurHead();
-        if (!f.exists()) {
-            return false;
-        }
-        if (!inCommit(head, f.getName())) {
-            return false;
-        }
-        String filename = f.getName();
-        String hashVal = sha1(filename, readContentsAsString(f));
-        return head.fileToBlobs.get(filename).equals(hashVal);
+    /** Returns the id of the newest commit in the active branch. */
+    private static String headId() {
+        return REFS.get(REFS.head());
+    }
+
+    /**
+     * Checks if the file is staged for addition: the index has a version
+     * of it that the head commit does not.
+     */
+    private static boolean isStaged(Commit head, String filename) {
+        Index.Entry e = index().get(filename);
+        return e != null && !e.blob.equals(head.files().get(filename));
     }
 
     public static void add(File f) {
-        if (!f.exists()) {
-            error("File does not exist.");
-        }
-        HashSet<String> delTracker = readObject(DEL_TRACKER_DIR, HashSet.class);
-        File copy = join(STAGING_DIR, f.getName());
-        if (sameInHeadCommit(f)) {
-            if (copy.exists()) {
-                copy.delete();
+        add(List.of(f));
+    }
+
+    /**
+     * Stages all of FILES. The files that changed are hashed and stored
+     * on a pool of worker threads; the index is then updated in order,
+     * so the result does not depend on the number of threads.
+     */
+    public static void add(List<File> files) {
+        List<File> changed = new ArrayList<>();
+        for (File given: files) {
+            boolean root = given.isDirectory() && CWD.toPath().toAbsolutePath().normalize()
+                    .equals(given.toPath().toAbsolutePath().normalize());
+            if (!given.exists() || !root && pathOf(given) == null) {
+                error("File does not exist.");
+            }
+            List<File> found = new ArrayList<>();
+            if (given.isDirectory()) {
+                for (String path : workingFiles(given)) {
+                    found.add(join(CWD, path));
+                }
+            } else {
+                found.add(given);
             }
-            if (delTracker.contains(f.getName())) {
-                delTracker.remove(f.getName());
-                writeObject(DEL_TRACKER_DIR, delTracker);
+            for (File f: found) {
+                // skip files already staged (or tracked) exactly as they are
+                if (!index().matches(pathOf(f), f)) {
+                    changed.add(f);
+                }
             }
-            return;
         }
-        addToAddTracker(f.getName());
-        writeContents(copy, readContentsAsString(f));
-    }
-
-    private static void clearStaged() {
-        for (File f: STAGING_DIR.listFiles()) {
-            f.delete();
+        List<String> blobs = Parallel.map(changed, Parallel.defaultThreads(),
+                BLOBS::putFile);
+        for (int i = 0; i < changed.size(); i += 1) {
+            // a version identical to the head's simply leaves nothing staged
+            index().put(pathOf(changed.get(i)), blobs.get(i), changed.get(i));
         }
-        writeObject(ADD_TRACKER_DIR, new HashSet<>());
-        writeObject(DEL_TRACKER_DIR, new HashSet<>());
     }
 
     public static void commit(String message, Commit other) {
         Commit curHead = getCurHead();
-        HashSet<String> addTrackerSet = readObject(ADD_TRACKER_DIR, HashSet.class);
-        HashSet<String> delTrackerSet = readObject(DEL_TRACKER_DIR, HashSet.class);
-        if (addTrackerSet.isEmpty() && delTrackerSet.isEmpty()) {
+        TreeMap<String, String> files = index().blobs();
+        if (files.equals(new TreeMap<>(curHead.files()))) {
             error("No changes added to the commit.");
         }
-        Commit commit = new Commit(message, addTrackerSet, delTrackerSet, curHead, other);
-        File newHead = join(COMMITS_DIR, commit.id);
-        // advances the active branch pointers
-        writeContents(join(BRANCH_DIR, readContentsAsString(HEAD)), commit.id);
-        writeObject(newHead, commit);
-        clearStaged();
+        Commit commit = new Commit(message, files, curHead, other);
+        commit.save();
+        record(commit);
+        // advances the active branch pointer, once the commit is on disk
+        REFS.set(REFS.head(), commit.id);
     }
 
-    /**
-     * Checks if the file is tracked in the current commit.
-     */
-    private static boolean isStaged(String filename) {
-        HashSet<String> addTracker = readObject(ADD_TRACKER_DIR, HashSet.class);
-        return addTracker.contains(filename);
+    /** Adds the saved commit C to the commit graph and the commit index,
+     *  unless they already have it (as they do when they were just
+     *  rebuilt from the commit store). If the graph lacks a parent of C,
+     *  it has lost commits, and is rebuilt from the store instead. */
+    private static void record(Commit c) {
+        if (COMMIT_INDEX.row(c.id) >= 0) {
+            return;
+        }
+        int parent1 = c.parent == null ? -1 : COMMIT_INDEX.row(c.parent);
+        int parent2 = c.parent2 == null ? -1 : COMMIT_INDEX.row(c.parent2);
+        if (c.parent != null && parent1 < 0 || c.parent2 != null && parent2 < 0) {
+            COMMIT_GRAPH.rebuild();
+            COMMIT_INDEX.rebuild();
+            return;
+        }
+        COMMIT_INDEX.add(c.id, COMMIT_GRAPH.append(c.id, parent1, parent2));
+        MESSAGE_INDEX.add(c.id, c.message);
+        JOURNAL.append(c);
+    }
+
+    /** Rebuilds the commit graph, and the commit index whose rows refer
+     *  to it, if the graph does not hold every commit in the store. */
+    private static void checkGraph() {
+        if (COMMIT_GRAPH.check()) {
+            COMMIT_INDEX.rebuild();
+        }
     }
 
     public static void rm(File f) {
-        String filename = f.getName();
-        if (isStaged(filename)) {
-            HashSet<String> addTracker = readObject(ADD_TRACKER_DIR, HashSet.class);
-            addTracker.remove(filename);
-            writeObject(ADD_TRACKER_DIR, addTracker);
-            join(STAGING_DIR, filename).delete();
-        } else if (inCommit(getCurHead(), filename)) {
-            addToDelTracker(filename);
-            f.delete();
+        String filename = pathOf(f);
+        Commit head = getCurHead();
+        if (filename != null && inCommit(head, filename)) {
+            index().remove(filename);
+            deleteWorkingFile(filename);
+        } else if (filename != null && isStaged(head, filename)) {
+            index().remove(filename);
         } else {
             System.out.println("No reason to remove the file.");
         }
     }
 
-    private static void printCommit(Commit c) {
-        System.out.println("===");
-        System.out.printf("commit %s\n", c.id);
-        if (c.merged) {
-            System.out.printf("Merge: %s %s\n",
-                    c.parent.id.substring(0, 7),
-                    c.parent2.id.substring(0, 7));
-        }
-        Formatter formatter = new Formatter();
-        formatter.format("Date: %1$ta %1$tb %1$td %1$tT %1$tY %1$tz%n", c.timestamp);
-        System.out.print(formatter);
-        System.out.println(c.message);
-        System.out.println();
+    /** Returns a buffered writer on the standard output, which the caller
+     *  must flush when done. */
+    private static PrintWriter stdout() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), STREAM_BUFFER_SIZE));
     }
 
-    public static void log() {
-        Commit c = getCurHead();
-        for (; c != null; c = c.parent) {
-            printCommit(c);
+    private static void printCommit(Commit c, PrintWriter out) {
+        out.println("===");
+        out.print("commit ");
+        out.println(c.id);
+        if (c.merged) {
+            out.print("Merge: ");
+            out.print(c.parent.substring(0, 7));
+            out.print(' ');
+            out.println(c.parent2.substring(0, 7));
+        }
+        out.print("Date: ");
+        out.println(LOG_DATE.format(c.timestamp.toInstant()));
+        out.println(c.message);
+        out.println();
+    }
+
+    /** Prints the first-parent history of the head commit, leaving out the
+     *  newest SKIP commits and then showing at most LIMIT of them (all of
+     *  them if LIMIT is negative). The history is walked in the commit
+     *  graph, so only the commits shown are ever read. */
+    public static void log(int skip, int limit) {
+        PrintWriter out = stdout();
+        int shown = 0;
+        for (int row = COMMIT_INDEX.row(headId()); row >= 0 && shown != limit;
+             row = COMMIT_GRAPH.parent1(row)) {
+            if (skip > 0) {
+                skip -= 1;
+                continue;
+            }
+            printCommit(Commit.load(COMMIT_GRAPH.idAt(row)), out);
+            shown += 1;
         }
+        out.flush();
     }
 
     public static void globalLog() {
-        for (File f: COMMITS_DIR.listFiles()) {
-            Commit c = readObject(f, Commit.class);
-            printCommit(c);
-        }
+        checkGraph();
+        PrintWriter out = stdout();
+        JOURNAL.forEach(c -> printCommit(c, out));
+        out.flush();
     }
 
     public static void find(String message) {
-        boolean found = false;
-        for (String filename: plainFilenamesIn(COMMITS_DIR)) {
-            Commit c = readObject(join(COMMITS_DIR, filename), Commit.class);
-            if (c.message.contains(message)) {
-                System.out.println(c.id);
-                found = true;
-            }
-        }
-        if (!found) {
+        checkGraph();
+        List<String> ids = MESSAGE_INDEX.find(message);
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
+            return;
         }
+        PrintWriter out = stdout();
+        for (String id : ids) {
+            out.println(id);
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints a unified diff of the files that differ from the commit
+     * FROMID to the commit TOID, or to the working directory if TOID is
+     * null. FROMID defaults to the head commit. Files whose blobs are the
+     * same on both sides are skipped without being read; of the working
+     * files, only those tracked by the index or FROMID are compared.
+     */
+    public static void diff(String fromId, String toId) {
+        Commit from = fromId == null ? getCurHead() : Commit.load(resolveCommitId(fromId));
+        PrintWriter out = stdout();
+        UnifiedDiff printer = new UnifiedDiff(out);
+        if (toId != null) {
+            Commit to = Commit.load(resolveCommitId(toId));
+            Map<String, String> removed = changesBetween(to, from);
+            for (Map.Entry<String, String> e: changesBetween(from, to).entrySet()) {
+                printer.print(e.getKey(), blobSource(removed.get(e.getKey())),
+                        blobSource(e.getValue()));
+            }
+        } else {
+            TreeSet<String> paths = new TreeSet<>(from.files().keySet());
+            paths.addAll(index().paths());
+            for (String path: paths) {
+                String blob = from.files().get(path);
+                File f = join(CWD, path);
+                if (!f.isFile()) {
+                    if (blob != null) {
+                        printer.print(path, blobSource(blob), null);
+                    }
+                    continue;
+                }
+                Index.Entry staged = index().get(path);
+                if (blob != null && (staged != null && staged.blob.equals(blob)
+                        && index().matches(path, f) || sha1(f).equals(blob))) {
+                    continue;
+                }
+                printer.print(path, blobSource(blob), () -> Files.newInputStream(f.toPath()));
+            }
+        }
+        out.flush();
+    }
+
+    /** Returns the contents of the blob ID as a diff source, or null if
+     *  ID is null. */
+    private static UnifiedDiff.Source blobSource(String id) {
+        return id == null ? null : () -> BLOBS.open(id);
     }
 
     public static void status() {
         System.out.println("=== Branches ===");
-        for (String branchName: plainFilenamesIn(BRANCH_DIR)) {
-            if (branchName.equals(readContentsAsString(HEAD))) {
+        String current = REFS.head();
+        for (String branchName: REFS.branches()) {
+            if (branchName.equals(current)) {
                 System.out.print("*");
             }
             System.out.println(branchName);
         }
         System.out.println();
+        Commit head = getCurHead();
         System.out.println("=== Staged Files ===");
-        HashSet<String> added = readObject(ADD_TRACKER_DIR, HashSet.class);
-        for (String filename: added) {
-            System.out.println(filename);
+        for (String filename: index().paths()) {
+            if (isStaged(head, filename)) {
+                System.out.println(filename);
+            }
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        HashSet<String> removed = readObject(DEL_TRACKER_DIR, HashSet.class);
-        for (String filename: removed) {
-            System.out.println(filename);
+        for (String filename: new TreeSet<>(head.files().keySet())) {
+            if (!index().contains(filename)) {
+                System.out.println(filename);
+            }
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
-        TreeSet<String> activeFiles = new TreeSet<>();
-        Commit head = getCurHead();
-        activeFiles.addAll(head.fileToBlobs.keySet());
-        for (File f: CWD.listFiles()) {
-            if (f.isFile()) {
-                activeFiles.add(f.getName());
-            }
-        }
-        for (String filename: activeFiles) {
+        for (String filename: index().paths()) {
             File f = join(CWD, filename);
-            if (!isStaged(filename) && !removed.contains(filename)) {
-                if (!f.exists()) {
-                    System.out.println(filename + " (deleted)");
-                    continue;
-                } else if (inCommit(head, filename) && !sameInHeadCommit(f)) {
-                    System.out.println(filename + " (modified)");
-                }
-            } else {
-                if (!removed.contains(filename)
-                        && inCommit(head, filename)
-                        && !sameInHeadCommit(f)) {
-                    System.out.println(filename + " (modified)");
-                }
-            }
-            if (!removed.contains(filename) && !f.exists()) {
-                System.out.println(removed);
+            if (!f.exists()) {
                 System.out.println(filename + " (deleted)");
+            } else if (!index().matches(filename, f)) {
+                System.out.println(filename + " (modified)");
             }
         }
         System.out.println();
         System.out.println("=== Untracked Files ===");
-        for (File f: CWD.listFiles()) {
-            if (f.isFile()) {
-                String filename = f.getName();
-                if (!isStaged(filename)
-                    && !removed.contains(filename)
-                    && !inCommit(head, filename)) {
-                    System.out.println(filename);
-                }
+        for (String filename: allWorkingFiles()) {
+            if (!index().contains(filename)) {
+                System.out.println(filename);
             }
         }
         System.out.println();
     }
 
     public static void branch(String branchName) {
-        File newBranch = join(BRANCH_DIR, branchName);
-        if (newBranch.exists()) {
+        if (REFS.get(branchName) != null) {
             error("A branch with that name already exists.");
         }
-        writeContents(newBranch, getCurHead().id);
+        REFS.set(branchName, headId());
     }
 
-    public static void checkout(String filename, String commitID) {
-        String realCommitId = commitID;
-        for (File f: COMMITS_DIR.listFiles()) {
-            String commit = f.getName();
-            if (commit.startsWith(realCommitId)) {
-                realCommitId = commit;
-            }
-        }
-        File commitFile = join(COMMITS_DIR, realCommitId);
-        if (!commitFile.exists()) {
+    /**
+     * Returns the full id of the only commit whose id starts with COMMITID.
+     */
+    private static String resolveCommitId(String commitID) {
+        List<String> matches = COMMIT_INDEX.matches(commitID, 2);
+        if (matches.isEmpty()) {
             error("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            error("Ambiguous commit id.");
         }
-        Commit commit = readObject(commitFile, Commit.class);
+        return matches.get(0);
+    }
+
+    public static void checkout(String filename, String commitID) {
+        checkout(filename, Commit.load(resolveCommitId(commitID)));
+    }
+
+    /** Writes the version of FILENAME in COMMIT to the working directory. */
+    private static void checkout(String filename, Commit commit) {
         if (!inCommit(commit, filename)) {
             error("File does not exist in that commit.");
         }
-        String blobName = commit.fileToBlobs.get(filename);
-        writeContents(join(CWD, filename),
-                readContentsAsString(join(BLOBS_DIR, blobName)));
+        String blobName = commit.files().get(filename);
+        File f = join(CWD, filename);
+        f.getParentFile().mkdirs();
+        BLOBS.copyTo(blobName, f);
     }
 
+    /**
+     * Makes the working directory and the staging area match the commit
+     * COMMITID. Only the paths that differ between the head commit and
+     * that commit, or whose working copies do not match the index, are
+     * written; the writes are spread over worker threads.
+     */
     private static void checkoutHelper(String commitID) {
-        Commit c = readObject(join(COMMITS_DIR, commitID), Commit.class);
-        for (String filename: c.fileToBlobs.keySet()) {
-            File f = join(CWD, filename);
-            if (f.exists()
-                && !sameInHeadCommit(f)
-                && !isStaged(filename)) {
+        Commit target = Commit.load(commitID);
+        Map<String, String> changes = changesBetween(getCurHead(), target);
+        Map<String, String> targetFiles = target.files();
+        List<String> writes = new ArrayList<>();
+        for (Map.Entry<String, String> e: targetFiles.entrySet()) {
+            String path = e.getKey();
+            File f = join(CWD, path);
+            Index.Entry staged = index().get(path);
+            if (staged == null && inTheWay(f)) {
                 error("There is an untracked file in the way;"
                        + " delete it, or add and commit it first.");
             }
+            if (changes.containsKey(path) || staged == null
+                    || !staged.blob.equals(e.getValue()) || !index().matches(path, f)) {
+                writes.add(path);
+            }
         }
-        for (String filename: c.fileToBlobs.keySet()) {
-            checkout(filename, commitID);
+        // deleted first, so that a file may take the place of a directory
+        for (Map.Entry<String, String> e: changes.entrySet()) {
+            if (e.getValue() == null) {
+                deleteWorkingFile(e.getKey());
+            }
         }
-        for (String filename: getCurHead().fileToBlobs.keySet()) {
-            if (!c.fileToBlobs.containsKey(filename)) {
-                join(CWD, filename).delete();
+        Parallel.map(writes, Parallel.defaultThreads(), path -> {
+            File f = join(CWD, path);
+            f.getParentFile().mkdirs();
+            BLOBS.copyTo(targetFiles.get(path), f);
+            return path;
+        });
+        for (String path: new ArrayList<>(index().paths())) {
+            if (!targetFiles.containsKey(path)) {
+                index().remove(path);
             }
         }
-        clearStaged();
+        for (String path: writes) {
+            index().put(path, targetFiles.get(path), join(CWD, path));
+        }
+    }
+
+    /**
+     * Returns true iff writing a file at F, whose path the index does not
+     * track, would overwrite or be stopped by a file the index does not
+     * track: F itself, a file under F if F is a directory, or a file in
+     * place of one of its directories.
+     */
+    private static boolean inTheWay(File f) {
+        if (f.isDirectory()) {
+            for (String path : workingFiles(f)) {
+                if (!index().contains(path)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (f.exists()) {
+            return true;
+        }
+        for (File dir = f.getParentFile(); !dir.equals(CWD); dir = dir.getParentFile()) {
+            if (dir.isFile()) {
+                return !index().contains(pathOf(dir));
+            } else if (dir.isDirectory()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the files that differ between commits FROM and TO, as
+     * Tree.diff does.
+     */
+    private static Map<String, String> changesBetween(Commit from, Commit to) {
+        return Tree.diff(from.tree, to.tree, TREES);
     }
 
     public static void checkout(String branchName) {
-        File newBranch = join(BRANCH_DIR, branchName);
-        if (!newBranch.exists()) {
+        String commitID = REFS.get(branchName);
+        if (commitID == null) {
             error("No such branch exists.");
         }
-        if (branchName.equals(readContentsAsString(HEAD))) {
+        if (branchName.equals(REFS.head())) {
             error("No need to checkout the current branch.");
         }
-        String commitID = readContentsAsString(newBranch);
         checkoutHelper(commitID);
         // make head point to the given branch
-        writeContents(HEAD, branchName);
+        REFS.setHead(branchName);
     }
 
     public static void rmBranch(String branchName) {
-        File branchFile = join(BRANCH_DIR, branchName);
-        if (!branchFile.exists()) {
+        if (REFS.get(branchName) == null) {
             error("A branch with that name does not exist.");
         }
-        if (branchName.equals(readContentsAsString(HEAD))) {
+        if (branchName.equals(REFS.head())) {
             error("Cannot remove the current branch.");
         }
-        branchFile.delete();
+        REFS.delete(branchName);
     }
 
     public static void reset(String commitID) {
-        String realCommitId = commitID;
-        for (File f: COMMITS_DIR.listFiles()) {
-            String commit = f.getName();
-            if (commit.startsWith(realCommitId)) {
-                realCommitId = commit;
-            }
-        }
-        File commit = join(COMMITS_DIR, realCommitId);
-        if (!commit.exists()) {
-            error("No commit with that id exists.");
-        }
-        checkoutHelper(commitID);
-        writeContents(join(BRANCH_DIR, readContentsAsString(HEAD)), commitID);
-    }
-
-    private static Commit findSplit(Commit head, Commit other) {
-        // includes all parents of head.
-        HashSet<String> parentsOfHead = new HashSet<>();
-        findAllParents(head, parentsOfHead);
-        return findSplitHelper(other, parentsOfHead);
-    }
-
-    private static Commit findSplitHelper(Commit c, HashSet<String> parentsOfHead) {
-        if (c == null) {
-            return c;
-        }
-        if (parentsOfHead.contains(c.id)) {
-            return c;
-        }
-        Commit resultP1 = findSplitHelper(c.parent, parentsOfHead);
-        Commit resultP2 = findSplitHelper(c.parent2, parentsOfHead);
-        return resultP1 == null ? resultP2 : resultP1;
+        String realCommitId = resolveCommitId(commitID);
+        checkoutHelper(realCommitId);
+        REFS.set(REFS.head(), realCommitId);
     }
 
-    private static void findAllParents(Commit head, HashSet<String> set) {
-        if (head == null) {
-            return;
-        }
-        set.add(head.id);
-        findAllParents(head.parent, set);
-        findAllParents(head.parent2, set);
+    /** Returns the split point of HEAD and OTHER: a latest common
+     *  ancestor, found by walking the commit graph. */
+    static Commit findSplit(Commit head, Commit other) {
+        int split = COMMIT_GRAPH.mergeBase(COMMIT_INDEX.row(head.id),
+                COMMIT_INDEX.row(other.id));
+        return Commit.load(COMMIT_GRAPH.idAt(split));
     }
 
     private static HashSet collectFiles(Commit head, Commit other, Commit split) {
         HashSet<String> files = new HashSet<>();
-        for (String name: head.fileToBlobs.keySet()) {
+        for (String name: head.files().keySet()) {
             files.add(name);
         }
-        for (String name: other.fileToBlobs.keySet()) {
+        for (String name: other.files().keySet()) {
             files.add(name);
         }
-        for (String name: split.fileToBlobs.keySet()) {
+        for (String name: split.files().keySet()) {
             files.add(name);
         }
         return files;
@@ -414,33 +731,63 @@ public class Repository {
 
     private static HashSet collectFiles(Commit head, Commit other) {
         HashSet<String> files = new HashSet<>();
-        for (String name: head.fileToBlobs.keySet()) {
+        for (String name: head.files().keySet()) {
             files.add(name);
         }
-        for (String name: other.fileToBlobs.keySet()) {
+        for (String name: other.files().keySet()) {
             files.add(name);
         }
         return files;
     }
 
-    private static void handleConflict(String filename, Commit current, Commit given) {
-        String headContent = "";
-        if (current.fileToBlobs.containsKey(filename)) {
-            headContent = readContentsAsString(join(BLOBS_DIR, current.fileToBlobs.get(filename)));
-        }
-        String givenContent = "";
-        if (given.fileToBlobs.containsKey(filename)) {
-            givenContent = readContentsAsString(join(BLOBS_DIR, given.fileToBlobs.get(filename)));
-        }
-        StringBuilder content = new StringBuilder();
-        content.append("<<<<<<< HEAD\n");
-        content.append(headContent);
-        content.append("=======\n");
-        content.append(givenContent);
-        content.append(">>>>>>>\n");
+    /** Returns the contents of FILENAME in COMMIT, or null if COMMIT does
+     *  not have it. */
+    private static byte[] contentsIn(Commit commit, String filename) {
+        String blob = commit.files().get(filename);
+        return blob == null ? null : SESSION.blob(blob);
+    }
+
+    /** Merges FILENAME, changed differently in CURRENT and GIVEN since
+     *  SPLIT, line by line with MERGER, and stages the result. If either
+     *  side removed the file, or any version of it is not text, the whole
+     *  file is a conflict, and the two versions are written between the
+     *  markers byte for byte. Returns true iff the result has conflicts. */
+    private static boolean handleConflict(String filename, Commit split, Commit current,
+                                          Commit given, LineMerge merger) {
+        byte[] baseContent = contentsIn(split, filename);
+        byte[] headContent = contentsIn(current, filename);
+        byte[] givenContent = contentsIn(given, filename);
         File f = join(CWD, filename);
-        writeContents(f, content.toString());
+        f.getParentFile().mkdirs();
+        boolean conflict;
+        if (headContent == null || givenContent == null || isBinary(baseContent)
+                || isBinary(headContent) || isBinary(givenContent)) {
+            byte[] ours = headContent == null ? new byte[0] : headContent;
+            byte[] theirs = givenContent == null ? new byte[0] : givenContent;
+            writeContents(f, LineMerge.OURS_MARKER, ours, LineMerge.lineEnd(ours),
+                    LineMerge.SEPARATOR, theirs, LineMerge.lineEnd(theirs),
+                    LineMerge.THEIRS_MARKER);
+            conflict = true;
+        } else {
+            writeContents(f, merger.merge(baseContent == null ? new byte[0] : baseContent,
+                    headContent, givenContent));
+            conflict = merger.conflicts() > 0;
+        }
         add(f);
+        return conflict;
+    }
+
+    /** Returns true iff CONTENTS is not null and holds a NUL byte, the
+     *  mark of contents that are not to be merged by line. */
+    private static boolean isBinary(byte[] contents) {
+        if (contents != null) {
+            for (byte b : contents) {
+                if (b == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     private static boolean mergeHelper(
@@ -449,22 +796,25 @@ public class Repository {
             Commit other,
             HashSet<String> files) {
         boolean conflict = false;
+        LineMerge merger = new LineMerge();
         for (String filename : files) {
             boolean inSplit = inCommit(split, filename);
             boolean inOther = inCommit(other, filename);
             boolean inHead = inCommit(head, filename);
-            String splitBlob = inSplit ? split.fileToBlobs.get(filename) : "";
-            String headBlob = inHead ? head.fileToBlobs.get(filename) : "";
-            String otherBlob = inOther ? other.fileToBlobs.get(filename) : "";
+            String splitBlob = inSplit ? split.files().get(filename) : "";
+            String headBlob = inHead ? head.files().get(filename) : "";
+            String otherBlob = inOther ? other.files().get(filename) : "";
             // modified in both other and head
             if (!splitBlob.equals(otherBlob) && !splitBlob.equals(headBlob)) {
                 if (otherBlob.equals(headBlob)) {
                     // case 3: modified in the same way.
                     continue;
                 } else {
-                    // case 3: modified in different ways.
-                    conflict = true;
-                    handleConflict(filename, head, other);
+                    // case 3: modified in different ways; the edits
+                    // conflict only where they overlap.
+                    if (handleConflict(filename, split, head, other, merger)) {
+                        conflict = true;
+                    }
                 }
             } else {
                 if (!splitBlob.equals(otherBlob)) {
@@ -474,7 +824,7 @@ public class Repository {
                         rm(join(CWD, filename));
                     } else {
                         // different in content: case 1
-                        checkout(filename, other.id);
+                        checkout(filename, other);
                         add(join(CWD, filename));
                     }
                     continue;
@@ -491,7 +841,7 @@ public class Repository {
                 }
                 if (!inHead && inOther) {
                     // case 5.
-                    checkout(filename, other.id);
+                    checkout(filename, other);
                     add(join(CWD, filename));
                 }
             }
@@ -500,53 +850,91 @@ public class Repository {
     }
 
     public static void merge(String otherBranchName) {
-        if (!join(BRANCH_DIR, otherBranchName).exists()) {
+        String otherId = REFS.get(otherBranchName);
+        if (otherId == null) {
             error("A branch with that name does not exist");
         }
-        if (otherBranchName.equals(readContentsAsString(HEAD))) {
+        if (otherBranchName.equals(REFS.head())) {
             error("Cannot merge a branch with itself.");
         }
-        File headFile = join(BRANCH_DIR, readContentsAsString(HEAD));
-        File otherFile = join(BRANCH_DIR, otherBranchName);
-        Commit head = readObject(
-                join(COMMITS_DIR, readContentsAsString(headFile)),
-                Commit.class);
-        Commit other = readObject(
-                join(COMMITS_DIR, readContentsAsString(otherFile)),
-                Commit.class);
+        Commit head = getCurHead();
+        Commit other = Commit.load(otherId);
+        long start = Trace.start();
         Commit split = findSplit(head, other);
+        Trace.stop("merge.split", start, 0);
         if (split.id.equals(other.id)) {
             error("Given branch is an ancestor of the current branch.");
         }
         if (split.id.equals(head.id)) {
             checkout(otherBranchName);
-            error("Current branch fast-forwarded.");
+            System.out.println("Current branch fast-forwarded.");
+            return;
         }
         HashSet<String> files = collectFiles(head, other, split);
         HashSet<String> activeFiles = collectFiles(head, other);
-        HashSet<String> addTracker = readObject(ADD_TRACKER_DIR, HashSet.class);
-        HashSet<String> delTracker = readObject(DEL_TRACKER_DIR, HashSet.class);
-        if (!addTracker.isEmpty() || !delTracker.isEmpty()) {
+        if (!index().blobs().equals(new TreeMap<>(head.files()))) {
             error("You have uncommitted changes.");
         }
         for (String filename: activeFiles) {
             File f = join(CWD, filename);
-            if (f.exists()
-                && !sameInHeadCommit(f)
-                && !isStaged(filename)) {
+            if (f.exists() && !index().contains(filename)) {
                 error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             }
         }
+        start = Trace.start();
         boolean conflict = mergeHelper(split, head, other, files);
+        Trace.stop("merge.files", start, 0);
         commit(
                 String.format("Merged %s into %s.",
                 otherBranchName,
-                readContentsAsString(HEAD)),
+                REFS.head()),
                 other
         );
         if (conflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
+
+    /**
+     * Deletes the commits, trees and blobs that no branch and no staged
+     * file can reach, and reports how many there were, the space freed
+     * and the time taken.
+     */
+    public static void gc() {
+        long start = System.nanoTime();
+        checkGraph();
+        GarbageCollector collector = new GarbageCollector();
+        List<String> heads = new ArrayList<>();
+        for (String branch : REFS.branches()) {
+            heads.add(REFS.get(branch));
+        }
+        collector.mark(heads, index().blobs().values());
+        long[] reclaimed = {0, 0};
+        collector.sweep(reclaimed);
+        SESSION.clear();
+        System.out.printf("Removed %d unreachable objects, reclaiming %d bytes in %d ms.%n",
+                reclaimed[0], reclaimed[1], (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Moves all loose blobs and commits into packs, and all loose branches
+     * into packed-refs. Successive versions of each file, in the order
+     * the commits were made, are delta-compressed against one another.
+     * The commits are read one at a time, and only their trees compared.
+     * The commit index takes in the commits made since it was last built.
+     */
+    public static void pack() {
+        checkGraph();
+        Iterable<String> history = () -> IntStream.range(0, COMMIT_GRAPH.size())
+                .mapToObj(row -> Commit.load(COMMIT_GRAPH.idAt(row)).tree).iterator();
+        PackWriter blobs = BLOBS.repack(Tree.versions(history, TREES));
+        COMMIT_INDEX.rebuild();
+        PackWriter trees = TREES.repack(new ArrayList<>());
+        PackWriter commitPack = COMMITS.repack(new ArrayList<>());
+        REFS.pack();
+        System.out.printf("Packed %d objects (%d as deltas).%n",
+                blobs.written() + trees.written() + commitPack.written(),
+                blobs.deltas() + trees.deltas() + commitPack.deltas());
+    }
 }
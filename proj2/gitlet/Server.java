@@ -0,0 +1,225 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.join;
+
+/** A long-lived gitlet process serving one repository, so that a script
+ *  running many commands pays for JVM startup, class loading and the
+ *  reading of the index, the head commit and the commit graph and index
+ *  only once. Started by "gitlet server" in the repository's directory,
+ *  it holds the repository lock for as long as it runs and listens on the
+ *  Unix domain socket .gitlet/server.sock. Main and Client send their
+ *  commands there whenever a server is listening.
+ *
+ *  A request is the command's arguments, each followed by a NUL byte;
+ *  the client then shuts down its side of the connection. The reply is
+ *  what the command prints, after which the server closes the
+ *  connection. Any program can be a client, for instance
+ *      printf 'status\0' | nc -UN .gitlet/server.sock
+ *  and "gitlet server stop" stops the server.
+ *
+ *  The server watches the working tree, so that the list of working
+ *  files can be kept between commands until something is added to or
+ *  removed from it. The watcher reports changes some time after they are
+ *  made, so before each command the server waits for it to catch up (see
+ *  catchUp). Commands run one at a time.
+ *  @author Marco
+ */
+class Server {
+
+    /** Name of the socket in .gitlet. */
+    static final String SOCKET_NAME = "server.sock";
+    /** Name of the file in .gitlet made before each command to learn when
+     *  the watcher has caught up. */
+    static final String SYNC_NAME = "server.sync";
+    /** How long to wait for the watcher to catch up, in milliseconds. */
+    private static final long SYNC_TIMEOUT = 2000;
+    /** Commands that leave the working tree as they found it. */
+    private static final Set<String> READ_ONLY =
+            Set.of("log", "global-log", "find", "status", "diff");
+
+    /** Watches the directories of the working tree. */
+    private WatchService watcher;
+    /** The watcher's key for .gitlet itself, which sees SYNC_NAME made. */
+    private WatchKey syncKey;
+    /** False once the server has been asked to stop. */
+    private boolean serving = true;
+
+    /** Serves requests until asked to stop. */
+    void run() {
+        Path socket = join(GITLET_DIR, SOCKET_NAME).toPath();
+        Thread cleanup = new Thread(() -> {
+            join(GITLET_DIR, SOCKET_NAME).delete();
+            unlock();
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             WatchService watching = FileSystems.getDefault().newWatchService()) {
+            watcher = watching;
+            watch(CWD.toPath());
+            syncKey = GITLET_DIR.toPath().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE);
+            watchWorkingTree();
+            Files.deleteIfExists(socket);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(cleanup);
+            System.out.println("Serving " + CWD + " on " + socket + ".");
+            System.out.flush();
+            while (serving) {
+                try (SocketChannel client = server.accept()) {
+                    serve(client);
+                }
+            }
+            Runtime.getRuntime().removeShutdownHook(cleanup);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            join(GITLET_DIR, SOCKET_NAME).delete();
+        }
+    }
+
+    /** Runs the command sent by CLIENT, sending back what it prints. */
+    private void serve(SocketChannel client) throws IOException {
+        String[] args = readRequest(client);
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), Utils.STREAM_BUFFER_SIZE),
+                false, StandardCharsets.UTF_8);
+        PrintStream stdout = System.out;
+        System.setOut(out);
+        try {
+            if (args.length > 0 && args[0].equals("server")) {
+                if (args.length == 2 && args[1].equals("stop")) {
+                    serving = false;
+                    out.println("Server stopped.");
+                } else {
+                    out.println("A gitlet server is already running.");
+                }
+                return;
+            }
+            catchUp();
+            Main.run(args);
+            if (args.length == 0 || !READ_ONLY.contains(args[0])) {
+                workingTreeChanged();
+            }
+        } catch (RuntimeException excp) {
+            discard();
+            out.println("Internal error: " + excp);
+        } finally {
+            out.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /** Returns the arguments sent by CLIENT. */
+    private static String[] readRequest(SocketChannel client) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Channels.newInputStream(client).transferTo(bytes);
+        byte[] request = bytes.toByteArray();
+        List<String> args = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < request.length; i += 1) {
+            if (request[i] == 0) {
+                args.add(new String(request, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /** Reports every change made to the working tree before this call,
+     *  and starts watching any new directories. The watcher reports events
+     *  in the order they happen, so this makes SYNC_NAME and takes events
+     *  until the one for SYNC_NAME comes: every change made before it has
+     *  then been seen. If it does not come within SYNC_TIMEOUT, the list
+     *  of working files is dropped instead, to be read afresh. */
+    private void catchUp() throws IOException {
+        Path sync = join(GITLET_DIR, SYNC_NAME).toPath();
+        Files.deleteIfExists(sync);
+        Files.createFile(sync);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_TIMEOUT);
+        boolean synced = false;
+        while (!synced) {
+            WatchKey key;
+            try {
+                key = watcher.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException excp) {
+                key = null;
+            }
+            if (key == null) {
+                workingTreeChanged();
+                break;
+            }
+            if (key == syncKey) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        workingTreeChanged();
+                        synced = true;
+                    } else if (event.context().equals(sync.getFileName())) {
+                        synced = true;
+                    }
+                }
+            } else {
+                changed(key);
+            }
+            key.reset();
+        }
+        Files.delete(sync);
+    }
+
+    /** Reports the changes to the working tree that KEY has seen, and
+     *  starts watching any new directories among them. */
+    private void changed(WatchKey key) throws IOException {
+        workingTreeChanged();
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                Path child = dir.resolve((Path) event.context());
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    watch(child);
+                }
+            }
+        }
+    }
+
+    /** Watches DIR and every directory under it, except .gitlet, for
+     *  files being added or removed. */
+    private void watch(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs)
+                    throws IOException {
+                if (d.toFile().equals(GITLET_DIR)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
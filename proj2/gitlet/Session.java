@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Repository.*;
+
+/** The objects a run of gitlet has already read, kept so that it need
+ *  not read and decode them again: decoded commits, and the contents of
+ *  blobs small enough to be worth keeping. Both caches are bounded by an
+ *  estimate of the memory they use and drop the least recently used
+ *  entries first. Objects never change once written, so a server keeps
+ *  its session from one command to the next.
+ *  @author Marco
+ */
+class Session {
+
+    /** Memory allowed for decoded commits, in bytes. */
+    static final long COMMIT_CACHE_BYTES = 16L << 20;
+    /** Memory allowed for blob contents, in bytes. */
+    static final long BLOB_CACHE_BYTES = 32L << 20;
+    /** Blobs larger than this are never kept. */
+    static final int MAX_CACHED_BLOB = 1 << 20;
+    /** Estimated bytes taken by a commit apart from its message and files. */
+    private static final long COMMIT_OVERHEAD = 256;
+    /** Estimated bytes taken by each file of a commit whose files have
+     *  been read: the path, the blob id and the map entry. */
+    private static final long FILE_OVERHEAD = 200;
+
+    /** Decoded commits, by id. */
+    private final LruCache<String, Commit> commits =
+            new LruCache<>(COMMIT_CACHE_BYTES, Session::weigh);
+    /** Blob contents, by id. */
+    private final LruCache<String, byte[]> blobs =
+            new LruCache<>(BLOB_CACHE_BYTES, b -> b.length);
+
+    /** Returns the commit ID, decoding it only if it is not cached. */
+    synchronized Commit commit(String id) {
+        Commit c = commits.get(id);
+        if (c == null) {
+            byte[] bytes = COMMITS.read(id);
+            long start = Trace.start();
+            c = Commit.decode(bytes);
+            Trace.stop("commit.decode", start, bytes.length);
+            commits.put(id, c);
+        }
+        return c;
+    }
+
+    /** Notes that the commit ID has read in its files and so takes more
+     *  memory. */
+    synchronized void filesRead(String id) {
+        commits.reweigh(id);
+    }
+
+    /** Returns the contents of the blob ID, which the caller must not
+     *  change. */
+    synchronized byte[] blob(String id) {
+        byte[] contents = blobs.get(id);
+        if (contents == null) {
+            contents = BLOBS.read(id);
+            if (contents.length <= MAX_CACHED_BLOB) {
+                blobs.put(id, contents);
+            }
+        }
+        return contents;
+    }
+
+    /** Forgets every object, as after some may have been deleted. */
+    synchronized void clear() {
+        commits.clear();
+        blobs.clear();
+    }
+
+    /** Returns the counters of the caches, by name: hits, misses,
+     *  evictions and bytes held, for commits and for blobs. */
+    synchronized Map<String, Long> counters() {
+        Map<String, Long> result = new TreeMap<>();
+        result.put("commit.hits", commits.hits());
+        result.put("commit.misses", commits.misses());
+        result.put("commit.evictions", commits.evictions());
+        result.put("commit.bytes", commits.weight());
+        result.put("blob.hits", blobs.hits());
+        result.put("blob.misses", blobs.misses());
+        result.put("blob.evictions", blobs.evictions());
+        result.put("blob.bytes", blobs.weight());
+        return result;
+    }
+
+    /** Returns an estimate of the memory taken by the decoded commit C. */
+    private static long weigh(Commit c) {
+        long files = c.fileToBlobs == null ? 0 : c.fileToBlobs.size();
+        return COMMIT_OVERHEAD + 2L * c.message.length() + FILE_OVERHEAD * files;
+    }
+}
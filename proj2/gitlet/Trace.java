@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Counts and times what a command does, so that a slow one can be seen
+ *  to spend its time hashing, reading and decoding objects, or writing
+ *  the working tree. Tracing is on for every command when the
+ *  environment variable GITLET_TRACE is set (to anything but ""), and for
+ *  one command when it is run as "gitlet --trace COMMAND ...". After each
+ *  traced command a summary goes to standard error: for each kind of
+ *  event, how many there were, the time they took and the bytes they
+ *  handled, then the hits and misses of the session caches.
+ *
+ *  Events are named by what they do, as "object.read" or "hash", and
+ *  recorded at the few places all such work passes through, such as the
+ *  object stores and the file routines of Utils. An event may happen
+ *  inside another (a merge reads objects), so times do not add up to the
+ *  total. While tracing is off, recording an event costs one test of a
+ *  static field.
+ *  @author Marco
+ */
+class Trace {
+
+    /** True iff GITLET_TRACE asks for every command to be traced. */
+    private static final boolean ALWAYS = System.getenv("GITLET_TRACE") != null
+            && !System.getenv("GITLET_TRACE").isEmpty();
+
+    /** True iff the current command is traced. */
+    static boolean enabled = ALWAYS;
+
+    /** For each event, its count, the nanoseconds it took and the bytes
+     *  it handled, since the last report. */
+    private static final Map<String, long[]> EVENTS = new TreeMap<>();
+    /** The time of the last report, or of begin. */
+    private static long since;
+    /** The session cache counters at that time. */
+    private static Map<String, Long> cacheSince;
+
+    /** Starts a command, tracing it if TRACE or GITLET_TRACE asks for
+     *  it. */
+    static void begin(boolean trace) {
+        enabled = ALWAYS || trace;
+        reset();
+    }
+
+    /** Ends the command started by begin. */
+    static void end() {
+        enabled = ALWAYS;
+    }
+
+    /** Returns the time to pass to stop, or 0 if tracing is off. */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Records an event NAME that began at START, as given by start, and
+     *  handled BYTES bytes. */
+    static void stop(String name, long start, long bytes) {
+        if (enabled) {
+            record(name, System.nanoTime() - start, bytes);
+        }
+    }
+
+    /** Records an event NAME, not timed, that handled BYTES bytes. */
+    static void count(String name, long bytes) {
+        if (enabled) {
+            record(name, 0, bytes);
+        }
+    }
+
+    /** Adds an event NAME that took NANOS and handled BYTES. Events may
+     *  come from worker threads. */
+    private static synchronized void record(String name, long nanos, long bytes) {
+        long[] totals = EVENTS.computeIfAbsent(name, k -> new long[3]);
+        totals[0] += 1;
+        totals[1] += nanos;
+        totals[2] += bytes;
+    }
+
+    /** Prints the summary of the events since begin or the last report,
+     *  headed by the command ARGS, if tracing is on, and starts counting
+     *  afresh. */
+    static synchronized void report(String[] args) {
+        if (!enabled) {
+            return;
+        }
+        PrintStream err = System.err;
+        err.printf("trace: %s: %.3f ms%n", String.join(" ", args),
+                (System.nanoTime() - since) / 1e6);
+        for (Map.Entry<String, long[]> e : EVENTS.entrySet()) {
+            long[] totals = e.getValue();
+            err.printf("  %-22s %8d calls %10.3f ms %12d bytes%n", e.getKey(),
+                    totals[0], totals[1] / 1e6, totals[2]);
+        }
+        for (Map.Entry<String, Long> e : Repository.SESSION.counters().entrySet()) {
+            long value = e.getValue();
+            if (!e.getKey().endsWith(".bytes")) {
+                value -= cacheSince.getOrDefault(e.getKey(), 0L);
+            }
+            err.printf("  %-22s %8d%n", "cache." + e.getKey(), value);
+        }
+        err.flush();
+        reset();
+    }
+
+    /** Forgets the events so far. */
+    private static synchronized void reset() {
+        EVENTS.clear();
+        since = System.nanoTime();
+        cacheSince = enabled ? Repository.SESSION.counters() : null;
+    }
+}
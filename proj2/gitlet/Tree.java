@@ -0,0 +1,301 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A directory listing kept as an object, as in git. Each entry names a
+ *  file, with the id of its blob, or a subdirectory, with the id of that
+ *  directory's own tree. A commit refers to the tree of the whole working
+ *  directory, so a commit that changes one file shares every subtree off
+ *  that file's path with its parent, and only the trees along the path
+ *  are new objects.
+ *
+ *  The stored form of a tree is FORMAT_VERSION, the number of entries,
+ *  and the entries in name order, each a type (BLOB or TREE), the name
+ *  and the raw 20-byte id. Numbers and strings are written as in
+ *  Commit.encode. A tree's id is the SHA-1 of its stored form.
+ *  @author Marco
+ */
+class Tree {
+
+    /** The version of the stored form. */
+    static final int FORMAT_VERSION = 1;
+    /** Type of an entry naming a file. */
+    static final int BLOB = 0;
+    /** Type of an entry naming a subdirectory. */
+    static final int TREE = 1;
+
+    /** An entry of a stored tree. */
+    private static class Entry {
+        /** BLOB or TREE. */
+        final int type;
+        /** The id of the blob or tree. */
+        final String id;
+
+        Entry(int type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    /** A directory while its tree is being built: each entry is a blob
+     *  id or a Node, by name. */
+    private static class Node {
+        final TreeMap<String, Object> entries = new TreeMap<>();
+    }
+
+    /** Returns the id of the tree holding FILES, a map from '/'-separated
+     *  paths to blob ids, after adding the stored form of that tree and
+     *  of each of its subtrees to OBJECTS, by id. It is an error for FILES
+     *  to hold both a path and paths under it. */
+    static String build(Map<String, String> files, Map<String, byte[]> objects) {
+        Node root = new Node();
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            Node dir = root;
+            String[] names = e.getKey().split("/");
+            for (int i = 0; i < names.length - 1; i += 1) {
+                Object child = dir.entries.get(names[i]);
+                if (child instanceof String) {
+                    throw conflict(e.getKey(), i, names);
+                } else if (child == null) {
+                    child = new Node();
+                    dir.entries.put(names[i], child);
+                }
+                dir = (Node) child;
+            }
+            if (dir.entries.containsKey(names[names.length - 1])) {
+                throw conflict(e.getKey(), names.length - 1, names);
+            }
+            dir.entries.put(names[names.length - 1], e.getValue());
+        }
+        return build(root, objects);
+    }
+
+    /** Returns the id of the tree of DIR, adding its stored form and those
+     *  of its subtrees to OBJECTS. */
+    private static String build(Node dir, Map<String, byte[]> objects) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (Map.Entry<String, Object> e : dir.entries.entrySet()) {
+            if (e.getValue() instanceof Node) {
+                entries.put(e.getKey(), new Entry(TREE, build((Node) e.getValue(), objects)));
+            } else {
+                entries.put(e.getKey(), new Entry(BLOB, (String) e.getValue()));
+            }
+        }
+        return write(entries, objects);
+    }
+
+    /** Returns the id of the tree that the tree ID, read from STORE,
+     *  becomes after CHANGES, a map from '/'-separated paths to their new
+     *  blob ids, or to null for paths removed. Only the trees on the paths
+     *  of CHANGES are built again, and added to OBJECTS by id; every other
+     *  subtree keeps its id. The result is the tree build would give for
+     *  the changed files. */
+    static String update(String id, SortedMap<String, String> changes,
+                         ObjectStore store, Map<String, byte[]> objects) {
+        String result = update(id, "", changes, store, objects);
+        return result != null ? result : write(new TreeMap<>(), objects);
+    }
+
+    /** Returns the id of the tree ID, or of an empty tree if ID is null,
+     *  after CHANGES, whose paths are relative to it and whose full paths
+     *  start with PREFIX, or null if the result is empty. */
+    private static String update(String id, String prefix, SortedMap<String, String> changes,
+                                 ObjectStore store, Map<String, byte[]> objects) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if (id != null) {
+            entries.putAll(entries(id, store));
+        }
+        Map<String, String> files = new TreeMap<>();
+        Map<String, SortedMap<String, String>> dirs = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            int slash = e.getKey().indexOf('/');
+            if (slash < 0) {
+                files.put(e.getKey(), e.getValue());
+            } else {
+                dirs.computeIfAbsent(e.getKey().substring(0, slash), k -> new TreeMap<>())
+                        .put(e.getKey().substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, SortedMap<String, String>> e : dirs.entrySet()) {
+            Entry old = entries.get(e.getKey());
+            boolean wasTree = old != null && old.type == TREE;
+            String sub = update(wasTree ? old.id : null, prefix + e.getKey() + "/",
+                    e.getValue(), store, objects);
+            if (sub == null) {
+                if (wasTree) {
+                    entries.remove(e.getKey());
+                }
+            } else if (files.get(e.getKey()) != null
+                    || !wasTree && old != null && !files.containsKey(e.getKey())) {
+                throw error("Cannot track both %s and files under it.", prefix + e.getKey());
+            } else {
+                entries.put(e.getKey(), new Entry(TREE, sub));
+            }
+        }
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            Entry old = entries.get(e.getKey());
+            if (e.getValue() == null) {
+                if (old != null && old.type == BLOB) {
+                    entries.remove(e.getKey());
+                }
+            } else if (old != null && old.type == TREE) {
+                throw error("Cannot track both %s and files under it.", prefix + e.getKey());
+            } else {
+                entries.put(e.getKey(), new Entry(BLOB, e.getValue()));
+            }
+        }
+        return entries.isEmpty() ? null : write(entries, objects);
+    }
+
+    /** Returns the id of the tree holding ENTRIES, by name, after adding
+     *  its stored form to OBJECTS. */
+    private static String write(Map<String, Entry> entries, Map<String, byte[]> objects) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT_VERSION);
+        Delta.writeVarint(out, entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            out.write(e.getValue().type);
+            writeString(out, e.getKey());
+            out.writeBytes(hexToBytes(e.getValue().id));
+        }
+        byte[] bytes = out.toByteArray();
+        String id = sha1(bytes);
+        objects.put(id, bytes);
+        return id;
+    }
+
+    /** Returns the error for the file at the first K+1 of NAMES, which
+     *  PATH shows to be a directory as well as a file. */
+    private static GitletException conflict(String path, int k, String[] names) {
+        String file = String.join("/", Arrays.copyOf(names, k + 1));
+        return error("Cannot track both %s and files under it.", file);
+    }
+
+    /** Returns every file under the tree ID, read from STORE, as a map
+     *  from '/'-separated paths to blob ids. */
+    static TreeMap<String, String> read(String id, ObjectStore store) {
+        TreeMap<String, String> result = new TreeMap<>();
+        read(id, "", store, result);
+        return result;
+    }
+
+    /** Adds the files under the tree ID to RESULT, with PREFIX before
+     *  each path. */
+    private static void read(String id, String prefix, ObjectStore store,
+                             Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : entries(id, store).entrySet()) {
+            if (e.getValue().type == TREE) {
+                read(e.getValue().id, prefix + e.getKey() + "/", store, result);
+            } else {
+                result.put(prefix + e.getKey(), e.getValue().id);
+            }
+        }
+    }
+
+    /** Returns the files that differ between the trees A and B, read from
+     *  STORE: each path whose blob in B is not its blob in A, mapped to
+     *  its blob in B, or to null if B does not have it. A subtree with
+     *  the same id in both is skipped without being read, so the work
+     *  done grows with the size of the difference, not of the trees. */
+    static TreeMap<String, String> diff(String a, String b, ObjectStore store) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diff(a, b, "", store, result);
+        return result;
+    }
+
+    /** Adds the differences between the trees A and B to RESULT, as diff
+     *  does, with PREFIX before each path. Either tree may be null,
+     *  standing for an empty one. */
+    private static void diff(String a, String b, String prefix, ObjectStore store,
+                             Map<String, String> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Map<String, Entry> as = a == null ? Collections.emptyMap() : entries(a, store);
+        Map<String, Entry> bs = b == null ? Collections.emptyMap() : entries(b, store);
+        TreeSet<String> names = new TreeSet<>(as.keySet());
+        names.addAll(bs.keySet());
+        for (String name : names) {
+            Entry x = as.get(name);
+            Entry y = bs.get(name);
+            if (x != null && y != null && x.type == y.type && x.id.equals(y.id)) {
+                continue;
+            }
+            String xTree = x != null && x.type == TREE ? x.id : null;
+            String yTree = y != null && y.type == TREE ? y.id : null;
+            if (xTree != null || yTree != null) {
+                diff(xTree, yTree, prefix + name + "/", store, result);
+            }
+            if (y != null && y.type == BLOB) {
+                result.put(prefix + name, y.id);
+            } else if (x != null && x.type == BLOB) {
+                result.put(prefix + name, null);
+            }
+        }
+    }
+
+    /** Adds to TREES the ids of the subtrees directly under the tree ID,
+     *  read from STORE, and to BLOBS the ids of the files directly in it. */
+    static void children(String id, ObjectStore store,
+                         Collection<String> trees, Collection<String> blobs) {
+        for (Entry e : entries(id, store).values()) {
+            (e.type == TREE ? trees : blobs).add(e.id);
+        }
+    }
+
+    /** Returns the successive versions of each file in TREES, taken in
+     *  order: for each path, the blob ids it has in them, leaving out any
+     *  that is the same as the one before it. Each tree is compared with
+     *  the one before it as diff does, so only one tree id is held at a
+     *  time and subtrees that did not change are not read. */
+    static List<List<String>> versions(Iterable<String> trees, ObjectStore store) {
+        Map<String, List<String>> versions = new TreeMap<>();
+        Map<String, String> changes = new TreeMap<>();
+        String previous = null;
+        for (String tree : trees) {
+            diff(previous, tree, "", store, changes);
+            for (Map.Entry<String, String> e : changes.entrySet()) {
+                if (e.getValue() == null) {
+                    continue;
+                }
+                List<String> chain = versions.computeIfAbsent(e.getKey(),
+                        k -> new ArrayList<>());
+                if (chain.isEmpty() || !chain.get(chain.size() - 1).equals(e.getValue())) {
+                    chain.add(e.getValue());
+                }
+            }
+            changes.clear();
+            previous = tree;
+        }
+        return new ArrayList<>(versions.values());
+    }
+
+    /** Returns the entries of the tree ID, read from STORE, by name. */
+    private static Map<String, Entry> entries(String id, ObjectStore store) {
+        byte[] bytes = store.read(id);
+        if (bytes.length == 0 || bytes[0] != FORMAT_VERSION) {
+            throw error("Unrecognized tree %s.", id);
+        }
+        int[] pos = {1};
+        int count = Delta.readVarint(bytes, pos);
+        Map<String, Entry> result = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            int type = bytes[pos[0]];
+            pos[0] += 1;
+            String name = readString(bytes, pos);
+            result.put(name, new Entry(type, readId(bytes, pos)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,325 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Prints the differences between two versions of a file as a unified
+ *  diff. Neither version is held in memory: each is read once to number
+ *  its lines, by a 64-bit hash of their bytes, and the line numbers are
+ *  matched with Diff. Two different lines may share a hash, so both are
+ *  then read side by side to compare every matched pair, and a pair that
+ *  differs becomes a removal and an addition: the output is always a
+ *  correct diff, if perhaps not the shortest one. A last reading prints
+ *  the hunks.
+ *
+ *  The number, match and search buffers are kept between files.
+ *  @author Marco
+ */
+class UnifiedDiff {
+
+    /** Lines of unchanged context around each change. */
+    static final int CONTEXT = 3;
+
+    /** A version of a file, which can be read more than once. */
+    interface Source {
+        /** Returns a new stream of the contents. */
+        InputStream open() throws IOException;
+    }
+
+    /** Where the diff is printed. */
+    private final PrintWriter out;
+    /** The differencing engine. */
+    private final Diff diff = new Diff();
+    /** The number given to each distinct line hash of the current file. */
+    private final Map<Long, Integer> numbers = new HashMap<>();
+    /** The line numbers of the old and new versions. */
+    private int[] oldLines = new int[0];
+    private int[] newLines = new int[0];
+    /** For each old line, the matching new line, or -1. */
+    private int[] matches = new int[0];
+    /** The number of lines found by the last call of number, or -1 if
+     *  the contents were not text. */
+    private int count;
+    /** The number of lines of the old and new versions, or -1 for one
+     *  that is not text. */
+    private int oldCount;
+    private int newCount;
+
+    UnifiedDiff(PrintWriter out) {
+        this.out = out;
+    }
+
+    /** A run of old lines [oldLo, oldHi) replaced by new lines
+     *  [newLo, newHi). */
+    private static class Change {
+        final int oldLo;
+        final int oldHi;
+        final int newLo;
+        final int newHi;
+
+        Change(int oldLo, int oldHi, int newLo, int newHi) {
+            this.oldLo = oldLo;
+            this.oldHi = oldHi;
+            this.newLo = newLo;
+            this.newHi = newHi;
+        }
+    }
+
+    /** Prints the diff of PATH from OLDVERSION to NEWVERSION, either of
+     *  which is null if the file does not exist on that side. */
+    void print(String path, Source oldVersion, Source newVersion) {
+        try {
+            numbers.clear();
+            oldCount = 0;
+            newCount = 0;
+            if (oldVersion != null) {
+                oldLines = number(oldVersion, oldLines);
+                oldCount = count;
+            }
+            if (newVersion != null) {
+                newLines = number(newVersion, newLines);
+                newCount = count;
+            }
+            boolean binary = oldCount < 0 || newCount < 0;
+            String oldName = oldVersion == null ? "/dev/null" : "a/" + path;
+            String newName = newVersion == null ? "/dev/null" : "b/" + path;
+            if (binary) {
+                out.println("Binary files " + oldName + " and " + newName + " differ");
+                return;
+            }
+            out.println("--- " + oldName);
+            out.println("+++ " + newName);
+            if (matches.length < oldCount) {
+                matches = new int[oldCount];
+            }
+            diff.match(oldLines, oldCount, newLines, newCount, matches);
+            if (oldVersion != null && newVersion != null) {
+                unmatchCollisions(oldVersion, newVersion);
+            }
+            printHunks(changes(oldCount, newCount), oldVersion, newVersion);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the numbers of the lines of SOURCE, in BUFFER if it is
+     *  large enough, and sets count. */
+    private int[] number(Source source, int[] buffer) throws IOException {
+        int[] result = buffer;
+        count = 0;
+        try (LineReader in = new LineReader(source.open())) {
+            for (byte[] line = in.next(); line != null; line = in.next()) {
+                if (in.binary) {
+                    count = -1;
+                    return result;
+                }
+                long hash = hash(line, in.length);
+                Integer number = numbers.get(hash);
+                if (number == null) {
+                    number = numbers.size();
+                    numbers.put(hash, number);
+                }
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, Math.max(16, 2 * count));
+                }
+                result[count] = number;
+                count += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Reads OLDVERSION and NEWVERSION side by side and unmatches each
+     *  pair of lines in matches that differ, their hashes having
+     *  collided. */
+    private void unmatchCollisions(Source oldVersion, Source newVersion) throws IOException {
+        try (LineReader olds = new LineReader(oldVersion.open());
+             LineReader news = new LineReader(newVersion.open())) {
+            for (int i = 0; i < oldCount; i += 1) {
+                if (matches[i] < 0) {
+                    continue;
+                }
+                olds.skipTo(i);
+                news.skipTo(matches[i]);
+                byte[] a = olds.next();
+                byte[] b = news.next();
+                if (!Arrays.equals(a, 0, olds.length, b, 0, news.length)) {
+                    matches[i] = -1;
+                }
+            }
+        }
+    }
+
+    /** Returns the changes between the N old and M new lines, from
+     *  matches. */
+    private List<Change> changes(int n, int m) {
+        List<Change> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && matches[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int oldLo = i;
+            while (i < n && matches[i] < 0) {
+                i += 1;
+            }
+            int newHi = i < n ? matches[i] : m;
+            result.add(new Change(oldLo, i, j, newHi));
+            j = newHi;
+        }
+        return result;
+    }
+
+    /** Prints CHANGES, grouped into hunks with their context, reading
+     *  the lines from OLDVERSION and NEWVERSION. */
+    private void printHunks(List<Change> changes, Source oldVersion, Source newVersion)
+            throws IOException {
+        try (LineReader olds = new LineReader(oldVersion == null ? null : oldVersion.open());
+             LineReader news = new LineReader(newVersion == null ? null : newVersion.open())) {
+            for (int first = 0; first < changes.size();) {
+                int last = first;
+                while (last + 1 < changes.size()
+                        && changes.get(last + 1).oldLo - changes.get(last).oldHi
+                        <= 2 * CONTEXT) {
+                    last += 1;
+                }
+                Change start = changes.get(first);
+                Change end = changes.get(last);
+                int oldLo = Math.max(0, start.oldLo - CONTEXT);
+                int newLo = start.newLo - (start.oldLo - oldLo);
+                int oldHi = Math.min(oldCount, end.oldHi + CONTEXT);
+                int newHi = end.newHi + (oldHi - end.oldHi);
+                out.println("@@ -" + range(oldLo, oldHi) + " +" + range(newLo, newHi) + " @@");
+                olds.skipTo(oldLo);
+                news.skipTo(newLo);
+                for (int c = first; c <= last; c += 1) {
+                    Change change = changes.get(c);
+                    printContext(olds, news, change.oldLo);
+                    while (olds.line < change.oldHi) {
+                        printLine('-', olds);
+                    }
+                    while (news.line < change.newHi) {
+                        printLine('+', news);
+                    }
+                }
+                printContext(olds, news, oldHi);
+                first = last + 1;
+            }
+        }
+    }
+
+    /** Prints the unchanged lines of OLDS and NEWS up to old line OLDHI. */
+    private void printContext(LineReader olds, LineReader news, int oldHi) throws IOException {
+        while (olds.line < oldHi) {
+            printLine(' ', olds);
+            news.next();
+        }
+    }
+
+    /** Reads the next line of IN and prints it after PREFIX. */
+    private void printLine(char prefix, LineReader in) throws IOException {
+        byte[] line = in.next();
+        print(prefix, line, in.length, in.ended);
+    }
+
+    /** Prints the LENGTH bytes of LINE after PREFIX, noting when the line
+     *  was not ENDED by a newline. */
+    private void print(char prefix, byte[] line, int length, boolean ended) {
+        out.print(prefix);
+        out.print(new String(line, 0, length, StandardCharsets.UTF_8));
+        if (!ended) {
+            out.print("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Returns the hunk header range of lines [LO, HI). */
+    private static String range(int lo, int hi) {
+        if (hi - lo == 1) {
+            return Integer.toString(hi);
+        }
+        return (hi == lo ? lo : lo + 1) + "," + (hi - lo);
+    }
+
+    /** Returns the 64-bit FNV-1a hash of the first LENGTH bytes of LINE. */
+    private static long hash(byte[] line, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i += 1) {
+            h ^= line[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Reads a stream a line at a time, into one reused buffer. */
+    private static class LineReader implements AutoCloseable {
+        /** The stream, or null for an empty one. */
+        private final InputStream in;
+        /** The bytes of the current line, which may be followed by junk. */
+        private byte[] buffer = new byte[256];
+        /** The number of lines read so far. */
+        int line;
+        /** The length of the current line, with its newline if it has one. */
+        int length;
+        /** True iff the current line ends with a newline. */
+        boolean ended;
+        /** True iff the current line holds a NUL byte. */
+        boolean binary;
+
+        LineReader(InputStream in) {
+            this.in = in == null ? null : new BufferedInputStream(in, Utils.STREAM_BUFFER_SIZE);
+        }
+
+        /** Returns the next line, whose first length bytes are valid, or
+         *  null at the end of the stream. */
+        byte[] next() throws IOException {
+            if (in == null) {
+                return null;
+            }
+            length = 0;
+            binary = false;
+            ended = false;
+            for (int c = in.read(); c >= 0; c = in.read()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * length);
+                }
+                buffer[length] = (byte) c;
+                length += 1;
+                binary |= c == 0;
+                if (c == '\n') {
+                    ended = true;
+                    break;
+                }
+            }
+            if (length == 0) {
+                return null;
+            }
+            line += 1;
+            return buffer;
+        }
+
+        /** Skips to line NUMBER, counting from 0. */
+        void skipTo(int number) throws IOException {
+            while (line < number && next() != null) {
+                continue;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+}
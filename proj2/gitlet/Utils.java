@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,13 +10,15 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -37,21 +40,24 @@ class Utils {
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
         try {
+            long start = Trace.start();
+            long hashed = 0;
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
+                byte[] bytes;
                 if (val instanceof byte[]) {
-                    md.update((byte[]) val);
+                    bytes = (byte[]) val;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
+                md.update(bytes);
+                hashed += bytes.length;
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            byte[] digest = md.digest();
+            Trace.stop("hash", start, hashed);
+            return bytesToHex(digest, 0, digest.length);
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -63,6 +69,65 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the buffers used to stream file contents. */
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /** Returns a fresh SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, which are read
+     *  through a fixed-size buffer, so FILE may be larger than memory. */
+    static String sha1(File file) {
+        long start = Trace.start();
+        long hashed = 0;
+        MessageDigest md = sha1Digest();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                hashed += buf.remaining();
+                md.update(buf);
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] digest = md.digest();
+        Trace.stop("hash", start, hashed);
+        return bytesToHex(digest, 0, digest.length);
+    }
+
+    /** Returns the raw bytes named by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                    | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** The hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns the lower-case hexadecimal numeral for the LENGTH bytes of
+     *  BYTES starting at OFFSET. */
+    static String bytesToHex(byte[] bytes, int offset, int length) {
+        char[] result = new char[2 * length];
+        for (int i = 0; i < length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[offset + i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[offset + i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -98,7 +163,10 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            long start = Trace.start();
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Trace.stop("file.read", start, contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -121,16 +189,18 @@ class Utils {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
+            long start = Trace.start();
+            long written = 0;
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                        : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                written += bytes.length;
             }
             str.close();
+            Trace.stop("file.write", start, written);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -152,6 +222,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T decoded from BYTES, which must hold the
+     *  result of serialize, casting it to EXPECTEDCLASS.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -220,6 +307,30 @@ class Utils {
         }
     }
 
+    /** Writes S to OUT as a varint length (see Delta.writeVarint) and its
+     *  UTF-8 bytes. */
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        Delta.writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /** Reads a string written by writeString from BYTES at POS[0],
+     *  advancing POS[0] past it. */
+    static String readString(byte[] bytes, int[] pos) {
+        int length = Delta.readVarint(bytes, pos);
+        String result = new String(bytes, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return result;
+    }
+
+    /** Reads a raw 20-byte id from BYTES at POS[0], advancing POS[0] past
+     *  it, and returns it in hex. */
+    static String readId(byte[] bytes, int[] pos) {
+        String result = bytesToHex(bytes, pos[0], UID_LENGTH / 2);
+        pos[0] += UID_LENGTH / 2;
+        return result;
+    }
 
 
     /* MESSAGES AND ERROR REPORTING */
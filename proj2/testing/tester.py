@@ -114,7 +114,7 @@ def Group(n):
 
 def contents(filename):
     try:
-        with open(filename) as inp:
+        with open(filename, errors="surrogateescape") as inp:
             return inp.read()
     except FileNotFoundError:
         return None